@@ -0,0 +1,87 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Pool of heap buffers in power-of-two size classes, so inbound frames can be handed between
+ * threads and large payloads assembled without allocating a fresh array for every message.
+ *
+ * Each class keeps its free buffers on an array-backed stack, so releasing a buffer allocates
+ * nothing. Requests above the largest class are allocated exactly and dropped on release.
+ * Released buffers are only kept while the pool holds less than {@code maxRetainedBytes} in
+ * total, so a burst of large messages does not stay pinned in the heap.
+ */
+class BufferPool {
+
+    private static final int MIN_SHIFT = 8; // 256 bytes, the smallest class, sized for a gossip frame
+
+    // Free buffers of one size class
+    private static class SizeClass {
+        private final ByteBuffer[] free; // free[0, count) are pooled, guarded by this
+        private int count;
+
+        SizeClass(int capacity) {
+            this.free = new ByteBuffer[capacity];
+        }
+    }
+
+    private final int maxShift;
+    private final SizeClass[] classes;
+    private final long maxRetainedBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    BufferPool(int maxBufferSize, int maxPerClass, long maxRetainedBytes) {
+        this.maxShift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(maxBufferSize - 1));
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.classes = new SizeClass[maxShift - MIN_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(maxPerClass);
+        }
+    }
+
+    /**
+     * A buffer with position 0 and limit {@code size}. Its capacity may be larger.
+     */
+    ByteBuffer acquire(int size) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        if (shift > maxShift) {
+            return ByteBuffer.allocate(size);
+        }
+        SizeClass sizeClass = classes[shift - MIN_SHIFT];
+        ByteBuffer buffer = null;
+        synchronized (sizeClass) {
+            if (sizeClass.count > 0) {
+                buffer = sizeClass.free[--sizeClass.count];
+                sizeClass.free[sizeClass.count] = null;
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(1 << shift);
+        } else {
+            retainedBytes.addAndGet(-buffer.capacity());
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1) return; // Not one of ours
+        int index = Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+        if (index < 0 || index >= classes.length) return;
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        SizeClass sizeClass = classes[index];
+        synchronized (sizeClass) {
+            if (sizeClass.count < sizeClass.free.length) {
+                sizeClass.free[sizeClass.count++] = buffer;
+                return;
+            }
+        }
+        retainedBytes.addAndGet(-capacity); // Class is full
+    }
+}
@@ -0,0 +1,76 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Deadlines for blocking reads and writes on channels served from a worker pool.
+ *
+ * A blocking {@link java.nio.channels.SocketChannel} has no timeouts of its own, so a requester
+ * that stops reading or goes quiet would hold a pool thread forever. Before each blocking call the
+ * serving thread arms its {@link Deadline} with how long the call may take, and {@link #check()}
+ * shuts down and closes the channel of every deadline that has passed. The blocked call, or the
+ * next one, then fails with an {@link java.io.IOException}; the serving thread tells a deadline
+ * from other failures with {@link Deadline#expired()} and goes back to its pool.
+ */
+class ChannelDeadlines {
+
+    /** The deadline of one served channel. Closing it stops the watch, not the channel. */
+    final class Deadline implements AutoCloseable {
+        private final SelectableChannel channel;
+        private volatile long expiresAt; // 0 while no blocking call is in progress
+        private volatile boolean expired;
+
+        private Deadline(SelectableChannel channel) {
+            this.channel = channel;
+        }
+
+        /** The next blocking call must finish within {@code timeout} milliseconds. */
+        void arm(long timeout) {
+            expiresAt = System.currentTimeMillis() + timeout;
+        }
+
+        /** Whether the channel was closed for overrunning its deadline. */
+        boolean expired() {
+            return expired;
+        }
+
+        @Override
+        public void close() {
+            watched.remove(this);
+        }
+    }
+
+    private final Set<Deadline> watched = ConcurrentHashMap.newKeySet();
+
+
+    Deadline watch(SelectableChannel channel) {
+        Deadline deadline = new Deadline(channel);
+        watched.add(deadline);
+        return deadline;
+    }
+
+    /** Closes the channels whose deadline has passed. Run periodically by the runtime. */
+    void check() {
+        long now = System.currentTimeMillis();
+        for (Deadline deadline : watched) {
+            long expiresAt = deadline.expiresAt;
+            if (expiresAt != 0 && now > expiresAt) {
+                deadline.expired = true;
+                watched.remove(deadline);
+                if (deadline.channel instanceof SocketChannel socket) {
+                    // A close alone does not wake a transferTo stuck in the kernel; a shutdown does
+                    try {
+                        socket.shutdownOutput();
+                    } catch (IOException ignored) {
+                    }
+                }
+                EventLoop.closeQuietly(deadline.channel);
+            }
+        }
+    }
+}
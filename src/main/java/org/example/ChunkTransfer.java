@@ -0,0 +1,360 @@
+package org.example;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+
+/**
+ * Moves payloads too large for one gossip line.
+ *
+ * The publisher splits the payload into fixed-size chunks named by their SHA-256 hash and gossips
+ * only a manifest, {@code <length>:<hash>,<hash>,...}. A peer that wants the message pulls the
+ * chunks from the neighbours that sent it the manifest, several at a time and spread across those
+ * neighbours, checks every hash and assembles the payload in a pooled buffer. Fetched chunks are
+ * cached so the peer can serve them onwards once it relays the manifest.
+ *
+ * Chunks are requested as {@code chunk:<hash>} lines on a plain connection, which may carry many
+ * requests. Each answer is a 4-byte length, or -1 if the chunk is not cached, followed by the bytes.
+ * A holder serves at most {@code MAX_SERVES_PER_REQUESTER} connections per requester and answers
+ * -2 on any further one; that lane of the pull stops and leaves its chunks to the others. A
+ * requester that goes quiet or stops reading is dropped when its serve overruns its deadline.
+ */
+class ChunkTransfer {
+
+    static final String CHUNK_PREFIX = "chunk:";
+    static final int CHUNK_SIZE = 256 * 1024;
+    static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+    private static final byte[] CHUNK_PREFIX_BYTES = CHUNK_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final int PARALLEL_PULLS = 4; // Chunks of one message in flight at once
+    private static final int MAX_ATTEMPTS = 3; // Per chunk and holder before the message is given up
+    private static final int FETCH_TIMEOUT = 5000; // 5 seconds to connect or read a chunk
+    private static final int NOT_CACHED = -1;
+    private static final int BUSY = -2;
+    private static final byte[] BUSY_REPLY = new byte[0]; // request() result for a holder at its limit
+    private static final int MAX_SERVES_PER_REQUESTER = 2; // Half the upload threads, so one requester leaves room for others
+    private static final long SERVE_IDLE_TIMEOUT = FETCH_TIMEOUT; // The requester asks for its next chunk at once
+    private static final long SERVE_WRITE_TIMEOUT = 10000; // 10 seconds for the requester to take one chunk
+
+    /** Called once every chunk has arrived and checked out. The payload is only valid during the call. */
+    interface Completion {
+        void completed(ByteBuffer payload);
+    }
+
+    /** Payload length and the hash of every chunk, in order. */
+    static class Manifest {
+        final int length;
+        final String[] hashes;
+
+        Manifest(int length, String[] hashes) {
+            this.length = length;
+            this.hashes = hashes;
+        }
+
+        int chunkLength(int chunk) {
+            return Math.min(CHUNK_SIZE, length - chunk * CHUNK_SIZE);
+        }
+
+        String encode() {
+            return length + ":" + String.join(",", hashes);
+        }
+
+        static Manifest parse(String body) {
+            int colon = body.indexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("Malformed manifest");
+            int length = Integer.parseInt(body.substring(0, colon));
+            String[] hashes = body.substring(colon + 1).split(",");
+            if (length <= 0 || length > MAX_PAYLOAD || hashes.length != (length + CHUNK_SIZE - 1) / CHUNK_SIZE) {
+                throw new IllegalArgumentException("Manifest does not match its length: " + length);
+            }
+            for (String hash : hashes) {
+                if (hash.length() != 64) throw new IllegalArgumentException("Malformed chunk hash: " + hash);
+            }
+            return new Manifest(length, hashes);
+        }
+    }
+
+    // One message being pulled
+    private class Assembly {
+        final long messageId;
+        final Manifest manifest;
+        final ByteBuffer buffer;
+        final Completion completion;
+        final List<PeerNode.PeerInfo> holders = new CopyOnWriteArrayList<>();
+        final Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+        final AtomicIntegerArray attempts;
+        final AtomicInteger remaining;
+        final AtomicInteger lanes = new AtomicInteger(); // Lanes still pulling
+        volatile boolean failed;
+
+        Assembly(long messageId, Manifest manifest, Completion completion) {
+            this.messageId = messageId;
+            this.manifest = manifest;
+            this.completion = completion;
+            this.buffer = pool.acquire(manifest.length);
+            this.attempts = new AtomicIntegerArray(manifest.hashes.length);
+            this.remaining = new AtomicInteger(manifest.hashes.length);
+            for (int i = 0; i < manifest.hashes.length; i++) {
+                pending.add(i);
+            }
+        }
+    }
+
+    private final BufferPool pool;
+    private final long cacheBudget;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true); // Guarded by this
+    private long cachedBytes; // Guarded by this
+    private final Map<Long, Assembly> active = new ConcurrentHashMap<>();
+    private final ExecutorService fetchers;
+    private final ChannelDeadlines deadlines;
+    private final ServeLimits serveLimits = new ServeLimits(MAX_SERVES_PER_REQUESTER);
+
+
+    ChunkTransfer(BufferPool pool, long cacheBudget, ExecutorService fetchers, ChannelDeadlines deadlines) {
+        this.pool = pool;
+        this.cacheBudget = cacheBudget;
+        this.fetchers = fetchers;
+        this.deadlines = deadlines;
+    }
+
+    /**
+     * Splits a payload into chunks, caches them for neighbours to pull and returns the manifest.
+     */
+    Manifest split(byte[] data) {
+        if (data.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload exceeds " + MAX_PAYLOAD + " bytes");
+        }
+        String[] hashes = new String[(data.length + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int i = 0; i < hashes.length; i++) {
+            byte[] chunk = Arrays.copyOfRange(data, i * CHUNK_SIZE, Math.min(data.length, (i + 1) * CHUNK_SIZE));
+            hashes[i] = DigestUtils.sha256Hex(chunk);
+            cache(hashes[i], chunk);
+        }
+        return new Manifest(data.length, hashes);
+    }
+
+    /**
+     * Starts pulling a message from {@code holder}. Does nothing if the message is already being pulled.
+     */
+    void fetch(long messageId, Manifest manifest, PeerNode.PeerInfo holder, Completion completion) {
+        // Most repeat manifests arrive while the pull is running; don't take a payload buffer for them
+        if (active.containsKey(messageId)) {
+            addHolder(messageId, holder);
+            return;
+        }
+        Assembly assembly = new Assembly(messageId, manifest, completion);
+        if (active.putIfAbsent(messageId, assembly) != null) {
+            pool.release(assembly.buffer);
+            addHolder(messageId, holder);
+            return;
+        }
+        assembly.holders.add(holder);
+        int pulls = Math.min(PARALLEL_PULLS, manifest.hashes.length);
+        assembly.lanes.set(pulls);
+        for (int lane = 0; lane < pulls; lane++) {
+            int start = lane;
+            fetchers.execute(() -> pull(assembly, start));
+        }
+    }
+
+    /** Another neighbour sent the same manifest, so it has the chunks too. */
+    void addHolder(long messageId, PeerNode.PeerInfo holder) {
+        Assembly assembly = active.get(messageId);
+        if (assembly != null && holder != null && !assembly.holders.contains(holder)) {
+            assembly.holders.add(holder);
+        }
+    }
+
+    boolean hasActive() {
+        return !active.isEmpty();
+    }
+
+    // One lane of a pull: keeps a connection to one holder and takes chunks until none are left
+    private void pull(Assembly assembly, int lane) {
+        int holderIndex = lane;
+        PeerNode.PeerInfo holder = null;
+        Socket socket = null;
+        DataInputStream in = null;
+        OutputStream out = null;
+        try {
+            while (true) {
+                Integer chunk = assembly.failed ? null : assembly.pending.poll();
+                if (chunk == null) {
+                    // The last lane out picks up chunks a busy lane put back after this one looked
+                    if (assembly.lanes.decrementAndGet() > 0 || assembly.failed || assembly.pending.isEmpty()) return;
+                    assembly.lanes.incrementAndGet();
+                    continue;
+                }
+                String hash = assembly.manifest.hashes[chunk];
+                byte[] bytes = cached(hash);
+                if (bytes == null) {
+                    try {
+                        // Lanes follow the holder list as it grows, so later manifests spread the pull
+                        PeerNode.PeerInfo assigned = assembly.holders.get(holderIndex % assembly.holders.size());
+                        if (socket != null && assigned != holder) {
+                            close(socket);
+                            socket = null;
+                        }
+                        if (socket == null) {
+                            holder = assigned;
+                            socket = new Socket();
+                            socket.connect(new InetSocketAddress(holder.ip, holder.port), FETCH_TIMEOUT);
+                            socket.setSoTimeout(FETCH_TIMEOUT);
+                            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                            out = new BufferedOutputStream(socket.getOutputStream());
+                        }
+                        bytes = request(in, out, hash, assembly.manifest.chunkLength(chunk));
+                    } catch (IOException e) {
+                        bytes = null;
+                    }
+                }
+
+                if (bytes == BUSY_REPLY) {
+                    // The holder already serves as many of our lanes as it allows; leave the chunk to them
+                    close(socket);
+                    socket = null;
+                    assembly.pending.add(chunk);
+                    if (assembly.lanes.decrementAndGet() > 0) return;
+                    assembly.lanes.incrementAndGet(); // No other lane is running, so count it as a failed attempt
+                    holderIndex++;
+                    if (assembly.attempts.incrementAndGet(chunk) > MAX_ATTEMPTS * assembly.holders.size()) {
+                        fail(assembly, "holders busy");
+                        return;
+                    }
+                    continue;
+                }
+
+                if (bytes == null) {
+                    // Holder failed or lacked the chunk: try the next holder for it
+                    close(socket);
+                    socket = null;
+                    holderIndex++;
+                    if (assembly.attempts.incrementAndGet(chunk) > MAX_ATTEMPTS * assembly.holders.size()) {
+                        fail(assembly, "chunk " + chunk + " unavailable");
+                        return;
+                    }
+                    assembly.pending.add(chunk);
+                    continue;
+                }
+
+                cache(hash, bytes);
+                System.arraycopy(bytes, 0, assembly.buffer.array(), chunk * CHUNK_SIZE, bytes.length);
+                if (assembly.remaining.decrementAndGet() == 0) {
+                    complete(assembly);
+                }
+            }
+        } catch (RuntimeException e) {
+            fail(assembly, e.toString());
+        } finally {
+            close(socket);
+        }
+    }
+
+    // Returns the verified chunk, BUSY_REPLY if the holder is at its limit for us, or null if it
+    // does not have the chunk or sent something else
+    private static byte[] request(DataInputStream in, OutputStream out, String hash, int expectedLength) throws IOException {
+        out.write((CHUNK_PREFIX + hash + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        int length = in.readInt();
+        if (length == BUSY) return BUSY_REPLY;
+        if (length < 0) return null;
+        if (length != expectedLength) throw new IOException("Unexpected chunk length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return DigestUtils.sha256Hex(bytes).equals(hash) ? bytes : null;
+    }
+
+    private void complete(Assembly assembly) {
+        active.remove(assembly.messageId);
+        try {
+            assembly.buffer.position(0).limit(assembly.manifest.length);
+            assembly.completion.completed(assembly.buffer);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            pool.release(assembly.buffer);
+        }
+    }
+
+    private void fail(Assembly assembly, String reason) {
+        if (assembly.failed) return;
+        assembly.failed = true;
+        // The buffer is left to the garbage collector, since other lanes may still be copying into it
+        if (active.remove(assembly.messageId, assembly)) {
+            System.err.println("Giving up on chunked message " + Long.toHexString(assembly.messageId) + ": " + reason);
+        }
+    }
+
+    /**
+     * Answers chunk requests on a connection until the requester closes it. The reader's current
+     * frame is the first request. {@code requester} is the remote address, which the serve limit
+     * is counted against.
+     */
+    void serve(SocketChannel channel, FrameReader reader, String requester) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        boolean admitted = serveLimits.tryAcquire(requester);
+        ChannelDeadlines.Deadline deadline = deadlines.watch(channel);
+        try {
+            if (!admitted) {
+                header.putInt(BUSY).flip();
+                deadline.arm(SERVE_WRITE_TIMEOUT);
+                while (header.hasRemaining()) channel.write(header);
+                return;
+            }
+            do {
+                if (!reader.startsWith(CHUNK_PREFIX_BYTES)) return;
+                byte[] chunk = cached(reader.frame().substring(CHUNK_PREFIX.length()));
+                header.clear();
+                header.putInt(chunk == null ? NOT_CACHED : chunk.length).flip();
+                ByteBuffer[] response = chunk == null ? new ByteBuffer[]{header} : new ByteBuffer[]{header, ByteBuffer.wrap(chunk)};
+                deadline.arm(SERVE_WRITE_TIMEOUT);
+                while (response[response.length - 1].hasRemaining()) {
+                    channel.write(response);
+                }
+                deadline.arm(SERVE_IDLE_TIMEOUT);
+            } while (reader.next());
+        } catch (IOException e) {
+            if (!deadline.expired()) throw e;
+            throw new SocketTimeoutException("Chunk requester " + requester + " stopped reading or asking");
+        } finally {
+            deadline.close();
+            if (admitted) serveLimits.release(requester);
+        }
+    }
+
+    private synchronized byte[] cached(String hash) {
+        return cache.get(hash);
+    }
+
+    private synchronized void cache(String hash, byte[] chunk) {
+        if (cache.put(hash, chunk) == null) {
+            cachedBytes += chunk.length;
+        }
+        Iterator<byte[]> eldest = cache.values().iterator();
+        while (cachedBytes > cacheBudget && cache.size() > 1) {
+            cachedBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private static void close(Socket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
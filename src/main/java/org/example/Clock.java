@@ -0,0 +1,18 @@
+package org.example;
+
+
+/**
+ * Time source for the gossip logic, so the same code runs on the wall clock or on the virtual
+ * clock of {@link GossipSimulation}.
+ */
+interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long millis();
+}
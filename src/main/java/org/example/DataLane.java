@@ -0,0 +1,90 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Threads that process inbound gossip handed over by the event loop.
+ *
+ * Work is queued as {@link Task}s linked through a field of their own, so handing a link to the
+ * lane allocates nothing. A task must not be queued again before it has started running; inbound
+ * links guarantee this by scheduling themselves at most once at a time.
+ */
+class DataLane {
+
+    /** A unit of work that can sit in the lane's queue without a separate queue node. */
+    abstract static class Task implements Runnable {
+        private Task next; // Guarded by the lane
+    }
+
+    private final List<Thread> threads = new ArrayList<>();
+    private Task head; // Guarded by this
+    private Task tail; // Guarded by this
+    private boolean running = true; // Guarded by this
+
+
+    DataLane(int threadCount, String name) {
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread(this::runWorker, name));
+        }
+    }
+
+    void start() {
+        threads.forEach(Thread::start);
+    }
+
+    synchronized void execute(Task task) {
+        if (!running) throw new RejectedExecutionException("Data lane is stopped");
+        task.next = null;
+        if (tail == null) {
+            head = task;
+        } else {
+            tail.next = task;
+        }
+        tail = task;
+        notify();
+    }
+
+    /** Stops the threads. Tasks still queued are dropped. */
+    void close() {
+        synchronized (this) {
+            running = false;
+            head = null;
+            tail = null;
+            notifyAll();
+        }
+        threads.forEach(Thread::interrupt);
+    }
+
+    // Returns null once the lane is stopped
+    private synchronized Task take() throws InterruptedException {
+        while (head == null) {
+            if (!running) return null;
+            wait();
+        }
+        Task task = head;
+        head = task.next;
+        if (head == null) tail = null;
+        task.next = null;
+        return task;
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return; // Only interrupted by close()
+            }
+            if (task == null) return;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Dead-node reports held by a seed until they are confirmed.
+ *
+ * One neighbour's report is not enough to drop a peer: it may be partitioned from the peer or
+ * simply overloaded. A report is confirmed by a second, different reporter within
+ * {@code window}, or by the peer's own heartbeats having stopped ({@code silent}). Until then
+ * only the latest report is kept, since any report from someone else settles it.
+ * {@link GossipSimulation} runs the same rule on its virtual clock.
+ *
+ * @param <K> how the caller identifies a peer and a reporter
+ */
+class DeadNodeReports<K> {
+
+    // The latest unconfirmed report about one peer
+    private static class Report<K> {
+        K reporter;
+        long reportedAt;
+    }
+
+    private final Clock clock;
+    private final long window;
+    private final Map<K, Report<K>> pending = new ConcurrentHashMap<>(); // Updated under this; heartbeats clear it without the lock
+
+
+    DeadNodeReports(Clock clock, long window) {
+        this.clock = clock;
+        this.window = window;
+    }
+
+    /**
+     * Records that {@code reporter} lost contact with {@code peer}. Returns true if the report is
+     * confirmed and the peer should be dropped; the peer's pending report is then forgotten.
+     */
+    synchronized boolean report(K peer, K reporter, boolean silent) {
+        long now = clock.millis();
+        Report<K> previous = pending.get(peer);
+        boolean corroborated = previous != null && !previous.reporter.equals(reporter)
+                && now - previous.reportedAt <= window;
+        if (silent || corroborated) {
+            pending.remove(peer);
+            return true;
+        }
+        if (previous == null) {
+            previous = new Report<>();
+            pending.put(peer, previous);
+        }
+        previous.reporter = reporter;
+        previous.reportedAt = now;
+        return false;
+    }
+
+    /** The peer was heard from, so reports about it were wrong. */
+    void alive(K peer) {
+        pending.remove(peer);
+    }
+
+    /** Forgets reports that found no second reporter within the window. */
+    synchronized void expire() {
+        long now = clock.millis();
+        Iterator<Report<K>> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().reportedAt > window) iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+
+/**
+ * Bounded set of recently seen message IDs.
+ *
+ * Holds the last {@code capacity} IDs in insertion order and forgets the oldest one when a new
+ * ID arrives, so memory stays flat however long the peer runs. Adding and checking an ID does not
+ * allocate.
+ */
+class DedupWindow {
+
+    private final long[] ring;
+    private final LongLongMap members;
+    private int head; // Next slot to overwrite
+    private int count;
+
+    DedupWindow(int capacity) {
+        this.ring = new long[capacity];
+        this.members = new LongLongMap(capacity);
+    }
+
+    synchronized boolean contains(long messageId) {
+        return members.containsKey(messageId);
+    }
+
+    /**
+     * Records the ID. Returns false if it is already in the window.
+     */
+    synchronized boolean add(long messageId) {
+        if (members.containsKey(messageId)) return false;
+        if (count == ring.length) {
+            members.remove(ring[head]);
+        } else {
+            count++;
+        }
+        ring[head] = messageId;
+        members.put(messageId, 1);
+        head = (head + 1) % ring.length;
+        return true;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * The IDs in the window, oldest first, so adding them back in order rebuilds the same window.
+     */
+    synchronized long[] toArray() {
+        long[] ids = new long[count];
+        int oldest = (head - count + ring.length) % ring.length;
+        for (int i = 0; i < count; i++) {
+            ids[i] = ring[(oldest + i) % ring.length];
+        }
+        return ids;
+    }
+}
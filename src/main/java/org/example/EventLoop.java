@@ -0,0 +1,171 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * One selector thread serving the sockets of many nodes.
+ *
+ * Channels are registered with a {@link Handler} that is called on the loop thread whenever the
+ * channel is ready. Other threads hand work to the loop with {@link #execute(Runnable)}, which is
+ * also how registrations from outside the loop are applied. A handler that needs to block, for
+ * example to stream a large reply, hands its channel to a worker pool with {@link #handOff}.
+ */
+class EventLoop implements Runnable, AutoCloseable {
+
+    /** Called on the loop thread when the channel is ready. Throwing closes the channel. */
+    interface Handler {
+        void ready(SelectionKey key) throws IOException;
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /** Runs the task on the loop thread after the current round of events. */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void register(SelectableChannel channel, int ops, Handler handler) {
+        if (inLoop()) {
+            registerNow(channel, ops, handler);
+        } else {
+            execute(() -> registerNow(channel, ops, handler));
+        }
+    }
+
+    private void registerNow(SelectableChannel channel, int ops, Handler handler) {
+        try {
+            channel.configureBlocking(false);
+            channel.register(selector, ops, handler);
+        } catch (IOException e) {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Takes the channel off the loop, switches it back to blocking mode and runs {@code task} on
+     * the executor. The channel is closed if the executor refuses the task.
+     */
+    void handOff(SelectionKey key, Executor executor, Runnable task) {
+        SelectableChannel channel = key.channel();
+        key.cancel();
+        // The key is only deregistered by the next select, so finish the switch from there
+        execute(() -> {
+            try {
+                selector.selectNow();
+                channel.configureBlocking(true);
+                executor.execute(task);
+            } catch (IOException | RejectedExecutionException e) {
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Closes a registered channel and waits until the loop has deregistered it. A closed channel
+     * keeps its socket until the next select, so a listening port can only be bound again after this.
+     */
+    void closeAndRelease(SelectableChannel channel) {
+        closeQuietly(channel);
+        if (inLoop() || !running) return;
+        CountDownLatch released = new CountDownLatch(1);
+        execute(() -> {
+            try {
+                selector.selectNow();
+            } catch (IOException ignored) {
+            } finally {
+                released.countDown();
+            }
+        });
+        try {
+            released.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        ((Handler) key.attachment()).ready(key);
+                    } catch (IOException | RuntimeException e) {
+                        key.cancel();
+                        closeQuietly(key.channel());
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Event loop error: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Stops the loop and closes every channel still registered with it. */
+    @Override
+    public void close() {
+        running = false;
+        execute(() -> {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    static void closeQuietly(SelectableChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+
+/**
+ * Ping-based failure detection shared by {@link PeerNode} and {@link GossipSimulation}.
+ *
+ * Every round each neighbour is either pinged or, once {@code maxMissedPings} pings in a row went
+ * unanswered, declared down. A ping counts as missed from the moment it is sent until its pong
+ * comes back within {@code pingTimeout}. Like {@link FloodRelay}, the caller keeps the per-link
+ * counters and exposes its links by index.
+ */
+class FailureDetector {
+
+    /**
+     * The links one round goes over, by index. {@code round} is the caller's state for the round
+     * and is passed back unchanged.
+     */
+    interface Links<C> {
+        int count(C round);
+
+        /** Whether the link is still watched; links already declared down are skipped. */
+        boolean watched(C round, int index);
+
+        int missedPings(C round, int index);
+
+        void setMissedPings(C round, int index, int missedPings);
+
+        void ping(C round, int index);
+
+        void down(C round, int index);
+    }
+
+    private final int maxMissedPings;
+    private final long pingTimeout;
+
+
+    FailureDetector(int maxMissedPings, long pingTimeout) {
+        this.maxMissedPings = maxMissedPings;
+        this.pingTimeout = pingTimeout;
+    }
+
+    /** Declares down the links that missed too many pings and pings the rest. */
+    <C> void round(Links<C> links, C round) {
+        int count = links.count(round);
+        for (int i = 0; i < count; i++) {
+            if (!links.watched(round, i)) continue;
+            int missed = links.missedPings(round, i);
+            if (GossipRules.isDead(missed, maxMissedPings)) {
+                links.down(round, i);
+            } else {
+                links.setMissedPings(round, i, missed + 1);
+                links.ping(round, i);
+            }
+        }
+    }
+
+    /**
+     * Whether the pong to a ping sent at {@code sentAt} came back in time. If it did, the caller
+     * clears the link's missed pings.
+     */
+    boolean answered(long sentAt, long now) {
+        return now - sentAt <= pingTimeout;
+    }
+}
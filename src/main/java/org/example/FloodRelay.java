@@ -0,0 +1,50 @@
+package org.example;
+
+import java.util.random.RandomGenerator;
+
+
+/**
+ * Flood relay decision shared by {@link PeerNode} and {@link GossipSimulation}.
+ *
+ * Each eligible neighbour gets the message with the probability that reaches {@code fanout} of
+ * them on average, and never fewer than {@link GossipRules#MIN_RELAY_FANOUT}. The caller keeps its
+ * neighbours in whatever form suits it and exposes them by index, so a relay allocates nothing.
+ */
+final class FloodRelay {
+
+    /**
+     * The neighbours one relay picks from, by index. {@code relay} is the caller's state for the
+     * message being relayed and is passed back unchanged.
+     */
+    interface Neighbours<C> {
+        int count(C relay);
+
+        /** Whether the neighbour may get the message at all, e.g. it is not the one it came from. */
+        boolean eligible(C relay, int index);
+
+        void send(C relay, int index);
+    }
+
+    private FloodRelay() {
+    }
+
+    /**
+     * Sends to each eligible neighbour with the probability that reaches {@code fanout} of them on
+     * average. A fanout of 0 or less sends to all of them.
+     */
+    static <C> void relay(Neighbours<C> neighbours, C relay, int fanout, RandomGenerator random) {
+        int count = neighbours.count(relay);
+        int candidates = 0;
+        for (int i = 0; i < count; i++) {
+            if (neighbours.eligible(relay, i)) candidates++;
+        }
+        if (candidates == 0) return;
+        double probability = fanout <= 0 ? 1.0
+                : GossipRules.relayProbability(Math.max(fanout, GossipRules.MIN_RELAY_FANOUT), candidates);
+        for (int i = 0; i < count; i++) {
+            if (!neighbours.eligible(relay, i)) continue;
+            if (probability < 1.0 && random.nextDouble() >= probability) continue;
+            neighbours.send(relay, i);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Splits newline-terminated frames out of a channel using one reusable buffer.
+ *
+ * After {@link #next()} returns true the current frame is available as a range of
+ * {@link #array()}; the range stays valid until the next call. Nothing is allocated per frame
+ * unless the caller asks for a {@code String}; copies go into pooled buffers. The buffer starts small and grows up to
+ * {@code MAX_BUFFER_SIZE} for long frames, so idle links stay cheap.
+ *
+ * Works on blocking and non-blocking channels. On a non-blocking channel {@link #next()} also
+ * returns false when no complete frame has arrived yet; {@link #isEnded()} tells the two apart.
+ */
+class FrameReader {
+
+    static final int MAX_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer; // Write position marks the end of the received bytes
+    private byte[] array;
+    private boolean ended;
+    private int readPosition;
+    private int frameStart;
+    private int frameEnd; // Excludes the line terminator
+
+    FrameReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.array = buffer.array();
+    }
+
+    /**
+     * Advances to the next complete frame. Returns false at end of stream, or on a non-blocking
+     * channel when the rest of the frame has not arrived yet.
+     */
+    boolean next() throws IOException {
+        int scanFrom = readPosition;
+        while (true) {
+            int filled = buffer.position();
+            for (int i = scanFrom; i < filled; i++) {
+                if (array[i] == '\n') {
+                    frameStart = readPosition;
+                    frameEnd = (i > frameStart && array[i - 1] == '\r') ? i - 1 : i;
+                    readPosition = i + 1;
+                    return true;
+                }
+            }
+            scanFrom = filled;
+
+            if (!buffer.hasRemaining()) {
+                if (readPosition > 0) {
+                    // Move the partial frame to the front to make room
+                    int pending = filled - readPosition;
+                    System.arraycopy(array, readPosition, array, 0, pending);
+                    buffer.position(pending);
+                    scanFrom -= readPosition;
+                    readPosition = 0;
+                } else if (array.length < MAX_BUFFER_SIZE) {
+                    grow();
+                } else {
+                    throw new IOException("Frame exceeds " + MAX_BUFFER_SIZE + " bytes");
+                }
+            }
+            int read = channel.read(buffer);
+            if (read < 0) {
+                ended = true;
+                return false;
+            }
+            if (read == 0) return false; // Non-blocking channel with nothing more for now
+        }
+    }
+
+    private void grow() {
+        ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_BUFFER_SIZE, array.length * 2));
+        larger.put(array, 0, buffer.position());
+        buffer = larger;
+        array = larger.array();
+    }
+
+    boolean isEnded() {
+        return ended;
+    }
+
+    byte[] array() {
+        return array;
+    }
+
+    int start() {
+        return frameStart;
+    }
+
+    int end() {
+        return frameEnd;
+    }
+
+    boolean startsWith(byte[] prefix) {
+        if (frameEnd - frameStart < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (array[frameStart + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A copy of the current frame ending in a single '\n', for handing to another thread. The copy
+     * is taken from the pool, runs from position 0 to its limit and goes back to the pool once used.
+     */
+    ByteBuffer copyFrame(BufferPool pool) {
+        int length = frameEnd - frameStart;
+        ByteBuffer copy = pool.acquire(length + 1);
+        System.arraycopy(array, frameStart, copy.array(), 0, length);
+        copy.array()[length] = '\n';
+        return copy;
+    }
+
+    String frame() {
+        return new String(array, frameStart, frameEnd - frameStart, StandardCharsets.UTF_8);
+    }
+}
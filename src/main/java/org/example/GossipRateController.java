@@ -0,0 +1,158 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Adjusts the gossip origination interval and relay fanout from local load signals.
+ *
+ * Every {@link #adjust} call looks at what happened since the previous one: how many of this node's
+ * frames are waiting on the outbound gossip lane, what share of its sends failed, how many of its
+ * frames were shed, how many received messages were duplicates, and the CPU load. The lane is shared
+ * by every node in the JVM, so backlog and shed frames are counted per node rather than read off it,
+ * and the backlog is compared with the node's share of the lane rather than the whole of it.
+ * Congestion backs off multiplicatively (interval doubles, fanout halves); a quiet
+ * period recovers additively, so the peer settles at a rate it can sustain instead of oscillating.
+ */
+class GossipRateController {
+
+    private static final double BACKLOG_HIGH_WATERMARK = 0.5; // Fraction of the node's share of the gossip lane in use
+    private static final double CPU_HIGH_WATERMARK = 0.85;
+    private static final double DUPLICATE_HIGH_WATERMARK = 0.8; // Most deliveries are redundant
+    private static final double FAILURE_HIGH_WATERMARK = 0.25; // Fraction of sends that failed
+    private static final long INTERVAL_STEP = 500; // Additive decrease of the interval, in ms
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final int minFanout;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicInteger backlog = new AtomicInteger(); // Frames queued and not yet sent
+    private long lastReceived;
+    private long lastDuplicates;
+    private long lastSends;
+    private long lastSendFailures;
+    private long lastShed;
+
+    private volatile long originationInterval;
+    private volatile int relayFanout = Integer.MAX_VALUE; // Start by relaying to every neighbour
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+
+    GossipRateController(long minInterval, long maxInterval, int minFanout) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.minFanout = minFanout;
+        this.originationInterval = minInterval;
+    }
+
+    void recordReceived(boolean duplicate) {
+        received.incrementAndGet();
+        if (duplicate) duplicates.incrementAndGet();
+    }
+
+    /**
+     * Counts a send to a neighbour. Sends to neighbours that already miss pings are left out by the
+     * caller, so one dead link does not read as congestion.
+     */
+    void recordSend(boolean failed) {
+        sends.incrementAndGet();
+        if (failed) sendFailures.incrementAndGet();
+    }
+
+    void recordShed() {
+        shed.incrementAndGet();
+    }
+
+    /** Counts a frame queued on the lane. Returns true if the node had none queued before. */
+    boolean frameQueued() {
+        return backlog.incrementAndGet() == 1;
+    }
+
+    /** Counts a queued frame as sent. Returns true if it was the node's last one. */
+    boolean frameSent() {
+        return backlog.decrementAndGet() == 0;
+    }
+
+    long originationInterval() {
+        return originationInterval;
+    }
+
+    /**
+     * How many neighbours a relayed message should go to right now.
+     */
+    int relayFanout() {
+        return relayFanout;
+    }
+
+    /**
+     * Recomputes the rate and fanout. {@code laneShare} is how many frames this node may fairly
+     * keep on the gossip lane. Returns true if either changed.
+     */
+    synchronized boolean adjust(int laneShare, int neighbours) {
+        long receivedNow = received.get();
+        long duplicatesNow = duplicates.get();
+        long sendsNow = sends.get();
+        long failuresNow = sendFailures.get();
+        long shedNow = shed.get();
+        long receivedDelta = receivedNow - lastReceived;
+        long duplicateDelta = duplicatesNow - lastDuplicates;
+        long sendDelta = sendsNow - lastSends;
+        long failureDelta = failuresNow - lastSendFailures;
+        long shedDelta = shedNow - lastShed;
+        lastReceived = receivedNow;
+        lastDuplicates = duplicatesNow;
+        lastSends = sendsNow;
+        lastSendFailures = failuresNow;
+        lastShed = shedNow;
+
+        double failureRatio = sendDelta == 0 ? 0 : (double) failureDelta / sendDelta;
+        boolean congested = backlog.get() > laneShare * BACKLOG_HIGH_WATERMARK
+                || failureRatio > FAILURE_HIGH_WATERMARK
+                || shedDelta > 0
+                || cpuLoad() > CPU_HIGH_WATERMARK;
+        double duplicateRatio = receivedDelta == 0 ? 0 : (double) duplicateDelta / receivedDelta;
+
+        long interval = originationInterval;
+        int fanout = Math.min(relayFanout, Math.max(neighbours, minFanout));
+        if (congested) {
+            interval = Math.min(maxInterval, interval * 2);
+            fanout = Math.max(minFanout, fanout / 2);
+        } else {
+            interval = Math.max(minInterval, interval - INTERVAL_STEP);
+            if (duplicateRatio > DUPLICATE_HIGH_WATERMARK) {
+                fanout = Math.max(minFanout, fanout - 1); // Redundant copies, trim the fanout
+            } else if (fanout < neighbours) {
+                fanout++;
+            }
+        }
+
+        boolean changed = interval != originationInterval || fanout != relayFanout;
+        originationInterval = interval;
+        relayFanout = fanout;
+        return changed;
+    }
+
+    // Process CPU load when the JVM exposes it, otherwise the load average per core
+    private double cpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) return load;
+        }
+        double loadAverage = os.getSystemLoadAverage();
+        return loadAverage < 0 ? 0 : loadAverage / os.getAvailableProcessors();
+    }
+
+    @Override
+    public String toString() {
+        return "interval=" + originationInterval + "ms, fanout="
+                + (relayFanout == Integer.MAX_VALUE ? "all" : String.valueOf(relayFanout));
+    }
+}
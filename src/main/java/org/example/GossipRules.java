@@ -0,0 +1,42 @@
+package org.example;
+
+
+/**
+ * Protocol parameters and decision rules of {@link PeerNode}. The ping timing and the Plumtree
+ * timeouts can be set with {@code gossip.*} system properties, and {@link GossipSimulation} takes
+ * the same values as options, so settings tried in simulation can be given to real peers.
+ */
+final class GossipRules {
+
+    static final int PING_INTERVAL = Integer.getInteger("gossip.pingInterval", 13000); // 13 seconds
+    static final int PING_TIMEOUT = Integer.getInteger("gossip.pingTimeout", 2000); // 2 seconds to connect and get a pong back
+    static final int MAX_MISSED_PINGS = Integer.getInteger("gossip.maxMissedPings", 3);
+    static final long HEARTBEAT_INTERVAL = 5000; // 5 seconds between a peer's heartbeats to each seed
+    static final int MESSAGE_INTERVAL = 5000; // 5 seconds, the fastest origination rate
+    static final int MIN_RELAY_FANOUT = 2; // Never relay to fewer neighbours than this
+    static final long IHAVE_TIMEOUT = Long.getLong("gossip.ihaveTimeout", 1000); // Wait this long for an announced message before grafting
+    static final long GRAFT_TIMEOUT = Long.getLong("gossip.graftTimeout", 500); // Wait this long for a grafted message before asking the next announcer
+    static final long DEAD_REPORT_WINDOW = 60000; // A second reporter within a minute confirms a dead-node report
+    static final long DEAD_REPORT_SILENCE = 10000; // Two missed heartbeats; a peer this quiet is dropped on one report
+
+    private GossipRules() {
+    }
+
+    /** How many of the configured seeds a peer registers with. */
+    static int seedQuorum(int seeds) {
+        return Math.floorDiv(seeds, 2) + 1;
+    }
+
+    /** A neighbour is declared dead once this many consecutive pings went unanswered. */
+    static boolean isDead(int missedPings, int maxMissedPings) {
+        return missedPings >= maxMissedPings;
+    }
+
+    /**
+     * Chance of relaying to each candidate neighbour so that on average {@code fanout} of the
+     * {@code candidates} get the message.
+     */
+    static double relayProbability(int fanout, int candidates) {
+        return candidates <= 0 ? 0 : Math.min(1.0, (double) fanout / candidates);
+    }
+}
@@ -0,0 +1,711 @@
+package org.example;
+
+import java.util.*;
+
+
+/**
+ * Deterministic discrete-event simulation of the gossip network.
+ *
+ * Builds a preferential-attachment overlay like the one peers form through the seeds, then plays
+ * gossip, pings and dead-node reports over an in-memory network with latency, loss, crashes and a
+ * partition, all on a virtual clock. Every random choice comes from one seeded generator and events
+ * that fall on the same millisecond run in the order they were scheduled, so a run is exactly
+ * reproducible from its seed.
+ *
+ * Nodes run the decision logic of {@link PeerNode} itself over the simulated network: the
+ * {@link FloodRelay} choice of relay targets, the {@link FailureDetector} ping rounds, the seeds'
+ * {@link DeadNodeReports} confirmation and, in plumtree mode, the {@link Plumtree} state machine.
+ * Heartbeats are only simulated for nodes with a pending dead-node report, where they clear it as
+ * they do on a seed; a crashed node counts as silent once it has missed two heartbeats. The fanout
+ * is fixed for a run; the adaptive rate and fanout of {@link GossipRateController} are not
+ * simulated. The ping interval and timeout, the missed-ping
+ * limit and the Plumtree timeouts default to the values a peer would use and can be set per run;
+ * the same values can be given to peers through the {@code gossip.*} system properties.
+ * Node and link state is kept in flat arrays (a CSR adjacency list plus per-link counters), so flood
+ * runs reach a million nodes in a few gigabytes of heap. Plumtree mode allocates one tree per node
+ * and is meant for runs of a few hundred thousand nodes.
+ *
+ * Usage: java org.example.GossipSimulation [--nodes 100000] [--attach 3] [--messages 10] [--fanout 0]
+ *        [--mode flood|plumtree] [--latency 20] [--jitter 10] [--loss 0] [--kill 0] [--killAt 5000]
+ *        [--partition 0] [--partitionStart 0] [--partitionEnd 0] [--pingInterval 13000]
+ *        [--pingTimeout 2000] [--maxMissedPings 3] [--ihaveTimeout 1000] [--graftTimeout 500]
+ *        [--duration 60000] [--seed 1]
+ */
+public class GossipSimulation {
+
+    // Event types
+    private static final int GOSSIP = 0;
+    private static final int IHAVE = 1;
+    private static final int GRAFT = 2;
+    private static final int PRUNE = 3;
+    private static final int PING = 4;
+    private static final int PONG = 5;
+    private static final int PING_ROUND = 6;
+    private static final int ORIGINATE = 7;
+    private static final int TREE_TICK = 8;
+    private static final int KILL = 9;
+    private static final int PARTITION_START = 10;
+    private static final int PARTITION_END = 11;
+    private static final int HEARTBEAT = 12;
+
+    private static final long TREE_REPAIR_INTERVAL = 100;
+
+    static class Config {
+        int nodes = 100_000;
+        int attach = 3; // Links each joining node opens, as in establishConnections
+        int messages = 10;
+        long messageInterval = GossipRules.MESSAGE_INTERVAL;
+        int fanout = 0; // Relays per message in flood mode, 0 relays to every neighbour
+        boolean plumtree;
+        double latency = 20; // Base one-way latency in milliseconds
+        double jitter = 10; // Uniform extra latency in milliseconds
+        double loss; // Chance that any one message is dropped
+        double killFraction; // Nodes that crash at killAt
+        long killAt = 5000;
+        double partitionFraction; // Nodes cut off from the rest between partitionStart and partitionEnd
+        long partitionStart;
+        long partitionEnd;
+        int pingInterval = GossipRules.PING_INTERVAL;
+        int pingTimeout = GossipRules.PING_TIMEOUT; // Pongs arriving later count as missed
+        int maxMissedPings = GossipRules.MAX_MISSED_PINGS;
+        long ihaveTimeout = GossipRules.IHAVE_TIMEOUT;
+        long graftTimeout = GossipRules.GRAFT_TIMEOUT;
+        long duration = 60000;
+        long seed = 1;
+    }
+
+    /** Virtual clock that only moves when the next event is taken off the queue. */
+    private static class VirtualClock implements Clock {
+        long now;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+
+    /**
+     * Binary min-heap of events ordered by time, then by scheduling order. Stored as parallel
+     * arrays so millions of pending events cost no objects.
+     */
+    private static class EventQueue {
+        private long[] time = new long[1024];
+        private long[] sequence = new long[1024];
+        private int[] type = new int[1024];
+        private int[] source = new int[1024];
+        private int[] target = new int[1024];
+        private long[] argument = new long[1024];
+        private int size;
+        private long nextSequence;
+
+        // The event taken by the last poll()
+        long eventTime;
+        int eventType;
+        int eventSource;
+        int eventTarget;
+        long eventArgument;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(long at, int kind, int from, int to, long arg) {
+            if (size == time.length) grow();
+            int slot = size++;
+            long seq = nextSequence++;
+            while (slot > 0) {
+                int parent = (slot - 1) >>> 1;
+                if (!before(at, seq, time[parent], sequence[parent])) break;
+                move(parent, slot);
+                slot = parent;
+            }
+            set(slot, at, seq, kind, from, to, arg);
+        }
+
+        void poll() {
+            eventTime = time[0];
+            eventType = type[0];
+            eventSource = source[0];
+            eventTarget = target[0];
+            eventArgument = argument[0];
+
+            int last = --size;
+            long at = time[last];
+            long seq = sequence[last];
+            int kind = type[last];
+            int from = source[last];
+            int to = target[last];
+            long arg = argument[last];
+            int slot = 0;
+            while (true) {
+                int child = 2 * slot + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(time[child + 1], sequence[child + 1], time[child], sequence[child])) {
+                    child++;
+                }
+                if (!before(time[child], sequence[child], at, seq)) break;
+                move(child, slot);
+                slot = child;
+            }
+            if (size > 0) set(slot, at, seq, kind, from, to, arg);
+        }
+
+        private static boolean before(long timeA, long seqA, long timeB, long seqB) {
+            return timeA < timeB || (timeA == timeB && seqA < seqB);
+        }
+
+        private void move(int from, int to) {
+            set(to, time[from], sequence[from], type[from], source[from], target[from], argument[from]);
+        }
+
+        private void set(int slot, long at, long seq, int kind, int from, int to, long arg) {
+            time[slot] = at;
+            sequence[slot] = seq;
+            type[slot] = kind;
+            source[slot] = from;
+            target[slot] = to;
+            argument[slot] = arg;
+        }
+
+        private void grow() {
+            int capacity = time.length * 2;
+            time = Arrays.copyOf(time, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+            type = Arrays.copyOf(type, capacity);
+            source = Arrays.copyOf(source, capacity);
+            target = Arrays.copyOf(target, capacity);
+            argument = Arrays.copyOf(argument, capacity);
+        }
+    }
+
+    /**
+     * The node a relay or ping round runs for, and the neighbour a relayed message came from. The
+     * simulation is single-threaded and relays and rounds only schedule events, so one is reused.
+     */
+    private static class Visit {
+        int node;
+        int sender;
+        int message;
+    }
+
+    /** A node's neighbours as relay targets: every live link except the one the message came over. */
+    private class SimulatedRelay implements FloodRelay.Neighbours<Visit> {
+        @Override
+        public int count(Visit visit) {
+            return offsets[visit.node + 1] - offsets[visit.node];
+        }
+
+        @Override
+        public boolean eligible(Visit visit, int index) {
+            int link = offsets[visit.node] + index;
+            return neighbours[link] != visit.sender && !droppedLinks.get(link);
+        }
+
+        @Override
+        public void send(Visit visit, int index) {
+            sendGossip(visit.node, neighbours[offsets[visit.node] + index], visit.message);
+        }
+    }
+
+    /** A node's links as seen by its ping rounds, with the missed pings kept in per-link arrays. */
+    private class SimulatedPings implements FailureDetector.Links<Visit> {
+        @Override
+        public int count(Visit visit) {
+            return offsets[visit.node + 1] - offsets[visit.node];
+        }
+
+        @Override
+        public boolean watched(Visit visit, int index) {
+            return !droppedLinks.get(offsets[visit.node] + index);
+        }
+
+        @Override
+        public int missedPings(Visit visit, int index) {
+            return missedPings[offsets[visit.node] + index];
+        }
+
+        @Override
+        public void setMissedPings(Visit visit, int index, int missed) {
+            missedPings[offsets[visit.node] + index] = (byte) missed;
+        }
+
+        @Override
+        public void ping(Visit visit, int index) {
+            int link = offsets[visit.node] + index;
+            pingSentAt[link] = (int) clock.now;
+            send(PING, visit.node, neighbours[link], link);
+        }
+
+        @Override
+        public void down(Visit visit, int index) {
+            int link = offsets[visit.node] + index;
+            int peer = neighbours[link];
+            droppedLinks.set(link);
+            if (config.plumtree) tree(visit.node).neighbourDown(peer);
+            reportDead(peer, visit.node);
+        }
+    }
+
+    /** Plumtree transport that turns control messages into network events for one node. */
+    private class SimulatedLinks implements Plumtree.Transport<Integer> {
+        private final int node;
+
+        SimulatedLinks(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public void sendIHave(Integer peer, long messageId) {
+            send(IHAVE, node, peer, messageId);
+        }
+
+        @Override
+        public void sendGraft(Integer peer, long messageId) {
+            send(GRAFT, node, peer, messageId);
+        }
+
+        @Override
+        public void sendPrune(Integer peer) {
+            send(PRUNE, node, peer, 0);
+        }
+
+        @Override
+        public void sendMessage(Integer peer, long messageId) {
+            sendGossip(node, peer, (int) messageId);
+        }
+    }
+
+    private final Config config;
+    private final SplittableRandom random;
+    private final VirtualClock clock = new VirtualClock();
+    private final EventQueue events = new EventQueue();
+    private final Visit visit = new Visit();
+    private final SimulatedRelay relay = new SimulatedRelay();
+    private final SimulatedPings pings = new SimulatedPings();
+    private final FailureDetector failureDetector;
+    private final DeadNodeReports<Integer> deadReports = new DeadNodeReports<>(clock, GossipRules.DEAD_REPORT_WINDOW);
+    private final int nodeCount;
+
+    // Overlay: the neighbours of node i are neighbours[offsets[i] .. offsets[i + 1])
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final byte[] missedPings; // Per link, as seen by the pinging side
+    private final int[] pingSentAt; // Per link, virtual time of the last ping
+    private final BitSet droppedLinks = new BitSet(); // Links a node gave up on after missed pings
+
+    // Node state
+    private final BitSet crashed = new BitSet();
+    private final BitSet registered = new BitSet(); // Membership as the seeds see it
+    private final BitSet isolated = new BitSet(); // The minority side of the partition
+    private boolean partitioned;
+    private final Plumtree<Integer>[] trees;
+    private final BitSet treesPending = new BitSet(); // Nodes waiting on an announced message
+
+    // Per-message results
+    private final BitSet[] delivered;
+    private final long[] originTime;
+    private final int[] originNode;
+    private final long[] payloadSends;
+    private final int[][] latencyHistogram; // Delivery latency in milliseconds, capped at the run length
+
+    // Failure detection results
+    private long killTime = -1;
+    private int killed;
+    private long deadReported; // Crashed nodes removed from the seeds
+    private long detectionTimeTotal;
+    private long falseRemovals; // Live nodes removed from the seeds
+    private long eventCount;
+    private long droppedMessages;
+
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    GossipSimulation(Config config) {
+        this.config = config;
+        this.random = new SplittableRandom(config.seed);
+        this.nodeCount = config.nodes;
+
+        int[][] overlay = buildOverlay();
+        this.offsets = overlay[0];
+        this.neighbours = overlay[1];
+        this.missedPings = new byte[neighbours.length];
+        this.pingSentAt = new int[neighbours.length];
+        this.registered.set(0, nodeCount);
+        this.failureDetector = new FailureDetector(config.maxMissedPings, config.pingTimeout);
+
+        this.trees = config.plumtree ? new Plumtree[nodeCount] : null;
+        this.delivered = new BitSet[config.messages];
+        this.originTime = new long[config.messages];
+        this.originNode = new int[config.messages];
+        this.payloadSends = new long[config.messages];
+        this.latencyHistogram = new int[config.messages][];
+    }
+
+    /**
+     * Preferential attachment: every joining node links to {@code attach} distinct existing nodes,
+     * each picked with probability proportional to its degree, which is the distribution
+     * selectPeerBasedOnDegree draws from. Picking a uniformly random endpoint of an existing link
+     * gives that distribution in constant time.
+     */
+    private int[][] buildOverlay() {
+        int attach = Math.max(1, Math.min(config.attach, nodeCount - 1));
+        int core = attach + 1; // The first nodes are fully connected to each other
+
+        int maxLinks = core * (core - 1) / 2 + (nodeCount - core) * attach;
+        int[] linkFrom = new int[maxLinks];
+        int[] linkTo = new int[maxLinks];
+        int[] endpoints = new int[2 * maxLinks];
+        int links = 0;
+
+        for (int a = 0; a < core && a < nodeCount; a++) {
+            for (int b = a + 1; b < core && b < nodeCount; b++) {
+                linkFrom[links] = a;
+                linkTo[links] = b;
+                endpoints[2 * links] = a;
+                endpoints[2 * links + 1] = b;
+                links++;
+            }
+        }
+
+        int[] chosen = new int[attach];
+        for (int node = core; node < nodeCount; node++) {
+            int picked = 0;
+            int endpointCount = 2 * links;
+            while (picked < attach) {
+                int candidate = endpoints[random.nextInt(endpointCount)];
+                boolean duplicate = false;
+                for (int i = 0; i < picked; i++) {
+                    if (chosen[i] == candidate) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate) chosen[picked++] = candidate;
+            }
+            for (int i = 0; i < attach; i++) {
+                linkFrom[links] = node;
+                linkTo[links] = chosen[i];
+                endpoints[2 * links] = node;
+                endpoints[2 * links + 1] = chosen[i];
+                links++;
+            }
+        }
+
+        int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < links; i++) {
+            offsets[linkFrom[i] + 1]++;
+            offsets[linkTo[i] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] neighbours = new int[offsets[nodeCount]];
+        int[] fill = Arrays.copyOf(offsets, nodeCount);
+        for (int i = 0; i < links; i++) {
+            neighbours[fill[linkFrom[i]]++] = linkTo[i];
+            neighbours[fill[linkTo[i]]++] = linkFrom[i];
+        }
+        return new int[][]{offsets, neighbours};
+    }
+
+    void run() {
+        for (int node = 0; node < nodeCount; node++) {
+            // Spread the ping rounds over the interval, as peers start at different times
+            events.add(random.nextLong(config.pingInterval), PING_ROUND, node, node, 0);
+        }
+        for (int message = 0; message < config.messages; message++) {
+            events.add(message * config.messageInterval, ORIGINATE, random.nextInt(nodeCount), 0, message);
+        }
+        if (config.killFraction > 0) {
+            events.add(config.killAt, KILL, 0, 0, 0);
+        }
+        if (config.partitionFraction > 0 && config.partitionEnd > config.partitionStart) {
+            events.add(config.partitionStart, PARTITION_START, 0, 0, 0);
+            events.add(config.partitionEnd, PARTITION_END, 0, 0, 0);
+        }
+        if (config.plumtree) {
+            events.add(TREE_REPAIR_INTERVAL, TREE_TICK, 0, 0, 0);
+        }
+
+        while (!events.isEmpty()) {
+            events.poll();
+            if (events.eventTime > config.duration) break;
+            clock.now = events.eventTime;
+            eventCount++;
+            dispatch(events.eventType, events.eventSource, events.eventTarget, events.eventArgument);
+        }
+    }
+
+    private void dispatch(int type, int source, int target, long argument) {
+        switch (type) {
+            case GOSSIP -> receiveGossip(source, target, (int) argument);
+            case IHAVE -> {
+                if (crashed.get(target)) return;
+                tree(target).onIHave(argument, source, delivered[(int) argument].get(target));
+                treesPending.set(target);
+            }
+            case GRAFT -> {
+                if (!crashed.get(target)) tree(target).onGraft(argument, source);
+            }
+            case PRUNE -> {
+                if (!crashed.get(target)) tree(target).onPrune(source);
+            }
+            case PING -> {
+                if (!crashed.get(target)) send(PONG, target, source, argument);
+            }
+            case PONG -> {
+                int link = (int) argument;
+                if (failureDetector.answered(pingSentAt[link], clock.now)) missedPings[link] = 0;
+            }
+            case HEARTBEAT -> {
+                if (!crashed.get(target)) deadReports.alive(target);
+            }
+            case PING_ROUND -> pingRound(source);
+            case ORIGINATE -> originate(source, (int) argument);
+            case TREE_TICK -> tickTrees();
+            case KILL -> crashNodes();
+            case PARTITION_START -> {
+                for (int node = 0; node < nodeCount; node++) {
+                    if (random.nextDouble() < config.partitionFraction) isolated.set(node);
+                }
+                partitioned = true;
+            }
+            case PARTITION_END -> {
+                isolated.clear();
+                partitioned = false;
+            }
+            default -> throw new IllegalStateException("Unknown event type " + type);
+        }
+    }
+
+    /**
+     * Puts a message on the simulated network. Messages to crashed nodes, across the partition or
+     * hit by loss are dropped; the sender cannot tell.
+     */
+    private void send(int type, int from, int to, long argument) {
+        if (crashed.get(to)
+                || (partitioned && isolated.get(from) != isolated.get(to))
+                || (config.loss > 0 && random.nextDouble() < config.loss)) {
+            droppedMessages++;
+            return;
+        }
+        long delay = Math.max(1, Math.round(config.latency + config.jitter * random.nextDouble()));
+        events.add(clock.now + delay, type, from, to, argument);
+    }
+
+    private void sendGossip(int from, int to, int message) {
+        payloadSends[message]++;
+        send(GOSSIP, from, to, message);
+    }
+
+    private void originate(int node, int message) {
+        // A crashed node cannot originate; hand the message to the next live one
+        int origin = crashed.nextClearBit(node);
+        if (origin >= nodeCount) origin = crashed.nextClearBit(0);
+        if (origin >= nodeCount) return;
+
+        delivered[message] = new BitSet(nodeCount);
+        latencyHistogram[message] = new int[(int) Math.max(1, config.duration) + 1];
+        originTime[message] = clock.now;
+        originNode[message] = origin;
+        deliver(origin, -1, message);
+    }
+
+    private void receiveGossip(int sender, int node, int message) {
+        if (crashed.get(node)) return;
+        if (delivered[message].get(node)) {
+            if (config.plumtree) tree(node).duplicate(sender);
+            return;
+        }
+        deliver(node, sender, message);
+    }
+
+    private void deliver(int node, int sender, int message) {
+        delivered[message].set(node);
+        int latency = (int) Math.min(clock.now - originTime[message], latencyHistogram[message].length - 1);
+        latencyHistogram[message][latency]++;
+
+        if (config.plumtree) {
+            Plumtree<Integer> tree = tree(node);
+            tree.delivered(message, sender < 0 ? null : sender, liveNeighbours(node));
+            for (int link = offsets[node]; link < offsets[node + 1]; link++) {
+                int peer = neighbours[link];
+                if (peer != sender && !droppedLinks.get(link) && tree.isEager(peer)) {
+                    sendGossip(node, peer, message);
+                }
+            }
+            return;
+        }
+
+        visit.node = node;
+        visit.sender = sender;
+        visit.message = message;
+        FloodRelay.relay(relay, visit, config.fanout, random);
+    }
+
+    private void pingRound(int node) {
+        if (crashed.get(node)) return;
+        visit.node = node;
+        failureDetector.round(pings, visit);
+        events.add(clock.now + config.pingInterval, PING_ROUND, node, node, 0);
+    }
+
+    /**
+     * A dead-node report reaching the seeds. A live peer's next heartbeat clears an unconfirmed
+     * report, as it does on a seed.
+     */
+    private void reportDead(int peer, int reporter) {
+        if (!registered.get(peer)) return;
+        boolean silent = crashed.get(peer) && clock.now - killTime > GossipRules.DEAD_REPORT_SILENCE;
+        if (!deadReports.report(peer, reporter, silent)) {
+            if (!crashed.get(peer)) {
+                events.add(clock.now + 1 + random.nextLong(GossipRules.HEARTBEAT_INTERVAL), HEARTBEAT, peer, peer, 0);
+            }
+            return;
+        }
+        registered.clear(peer);
+        if (crashed.get(peer)) {
+            deadReported++;
+            detectionTimeTotal += clock.now - killTime;
+        } else {
+            falseRemovals++;
+        }
+    }
+
+    private void crashNodes() {
+        killTime = clock.now;
+        int target = (int) Math.min(nodeCount - 1L, Math.round(nodeCount * config.killFraction));
+        while (killed < target) {
+            int node = random.nextInt(nodeCount);
+            if (!crashed.get(node)) {
+                crashed.set(node);
+                killed++;
+            }
+        }
+    }
+
+    private void tickTrees() {
+        for (int node = treesPending.nextSetBit(0); node >= 0; node = treesPending.nextSetBit(node + 1)) {
+            Plumtree<Integer> tree = trees[node];
+            if (crashed.get(node) || tree == null) {
+                treesPending.clear(node);
+                continue;
+            }
+            tree.tick();
+            if (!tree.hasPending()) treesPending.clear(node);
+        }
+        events.add(clock.now + TREE_REPAIR_INTERVAL, TREE_TICK, 0, 0, 0);
+    }
+
+    private Plumtree<Integer> tree(int node) {
+        Plumtree<Integer> tree = trees[node];
+        if (tree == null) {
+            tree = new Plumtree<>(new SimulatedLinks(node), clock, config.ihaveTimeout, config.graftTimeout);
+            trees[node] = tree;
+        }
+        return tree;
+    }
+
+    private List<Integer> liveNeighbours(int node) {
+        List<Integer> live = new ArrayList<>(offsets[node + 1] - offsets[node]);
+        for (int link = offsets[node]; link < offsets[node + 1]; link++) {
+            if (!droppedLinks.get(link)) live.add(neighbours[link]);
+        }
+        return live;
+    }
+
+    void report(long wallMillis) {
+        System.out.printf("Simulated %,d nodes, %,d links (average degree %.2f), %s mode, fanout %s, seed %d%n",
+                nodeCount, neighbours.length / 2, (double) neighbours.length / nodeCount,
+                config.plumtree ? "plumtree" : "flood", config.fanout > 0 ? String.valueOf(config.fanout) : "all", config.seed);
+        System.out.printf("Ping every %d ms, timeout %d ms, dead after %d missed; IHAVE timeout %d ms, GRAFT timeout %d ms%n",
+                config.pingInterval, config.pingTimeout, config.maxMissedPings, config.ihaveTimeout, config.graftTimeout);
+
+        for (int message = 0; message < config.messages; message++) {
+            if (delivered[message] == null) {
+                System.out.printf("Message %d: not originated before the end of the run%n", message);
+                continue;
+            }
+            // Coverage is measured against the nodes that are still up
+            BitSet reached = (BitSet) delivered[message].clone();
+            reached.andNot(crashed);
+            int live = nodeCount - crashed.cardinality();
+            System.out.printf("Message %d: origin %d at %d ms, coverage %.2f%%, latency p50 %d ms p99 %d ms max %d ms, %,d payload sends (%.2f per node)%n",
+                    message, originNode[message], originTime[message], 100.0 * reached.cardinality() / live,
+                    percentile(latencyHistogram[message], 0.50), percentile(latencyHistogram[message], 0.99),
+                    percentile(latencyHistogram[message], 1.0), payloadSends[message],
+                    (double) payloadSends[message] / nodeCount);
+        }
+
+        if (killed > 0) {
+            System.out.printf("Failure detection: %,d crashed, %,d removed from the seeds (mean %.1f s after the crash)%n",
+                    killed, deadReported, deadReported == 0 ? 0 : detectionTimeTotal / 1000.0 / deadReported);
+        }
+        System.out.printf("False removals of live nodes: %,d%n", falseRemovals);
+        System.out.printf("Processed %,d events (%,d messages dropped) in %,d ms%n", eventCount, droppedMessages, wallMillis);
+    }
+
+    private static int percentile(int[] histogram, double fraction) {
+        long total = 0;
+        for (int count : histogram) total += count;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int latency = 0; latency < histogram.length; latency++) {
+            seen += histogram[latency];
+            if (seen >= rank) return latency;
+        }
+        return histogram.length - 1;
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config config = new Config();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--nodes" -> config.nodes = Integer.parseInt(value);
+                case "--attach" -> config.attach = Integer.parseInt(value);
+                case "--messages" -> config.messages = Integer.parseInt(value);
+                case "--messageInterval" -> config.messageInterval = Long.parseLong(value);
+                case "--fanout" -> config.fanout = Integer.parseInt(value);
+                case "--mode" -> config.plumtree = value.equalsIgnoreCase("plumtree");
+                case "--latency" -> config.latency = Double.parseDouble(value);
+                case "--jitter" -> config.jitter = Double.parseDouble(value);
+                case "--loss" -> config.loss = Double.parseDouble(value);
+                case "--kill" -> config.killFraction = Double.parseDouble(value);
+                case "--killAt" -> config.killAt = Long.parseLong(value);
+                case "--partition" -> config.partitionFraction = Double.parseDouble(value);
+                case "--partitionStart" -> config.partitionStart = Long.parseLong(value);
+                case "--partitionEnd" -> config.partitionEnd = Long.parseLong(value);
+                case "--pingInterval" -> config.pingInterval = Integer.parseInt(value);
+                case "--pingTimeout" -> config.pingTimeout = Integer.parseInt(value);
+                case "--maxMissedPings" -> config.maxMissedPings = Integer.parseInt(value);
+                case "--ihaveTimeout" -> config.ihaveTimeout = Long.parseLong(value);
+                case "--graftTimeout" -> config.graftTimeout = Long.parseLong(value);
+                case "--duration" -> config.duration = Long.parseLong(value);
+                case "--seed" -> config.seed = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (config.nodes < 2) throw new IllegalArgumentException("--nodes must be at least 2");
+        if (config.pingInterval <= 0) throw new IllegalArgumentException("--pingInterval must be positive");
+        if (config.maxMissedPings < 1 || config.maxMissedPings > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("--maxMissedPings must be between 1 and " + Byte.MAX_VALUE);
+        }
+        return config;
+    }
+
+    public static void main(String[] args) {
+        Config config;
+        try {
+            config = parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        long start = System.nanoTime();
+        GossipSimulation simulation = new GossipSimulation(config);
+        simulation.run();
+        simulation.report((System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,380 @@
+package org.example;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+
+/**
+ * Durable append log of gossip messages, split into fixed-size memory-mapped segments.
+ *
+ * Each record is laid out as {@code [int length][long messageId][long originTimestamp][payload]}.
+ * Segment files are named after the logical offset of their first byte, so a record can be
+ * located from the in-memory index by its global offset alone. Each segment also keeps a sparse
+ * time index, so a replay can start at the first record that is recent enough. Old segments are
+ * dropped once they fall outside the configured age or the log grows past the configured size.
+ */
+public class GossipStore implements Closeable {
+
+    static final int SEGMENT_SIZE = 16 * 1024 * 1024; // 16 MB per segment
+    static final int RECORD_HEADER = 4 + 8 + 8;
+    private static final int MARK_INTERVAL = 64 * 1024; // Bytes of records between time index marks
+    static final int TRANSFER_STEP = 1024 * 1024; // Most bytes one transferTo call of a replay may send
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>(); // base offset -> segment
+    private final LongLongMap index = new LongLongMap(1 << 16); // message id -> global offset
+    private Segment active;
+    private boolean closed;
+
+
+    static class Segment {
+        final long baseOffset;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int size;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        int readers; // Replays streaming from the channel, guarded by the store
+        boolean retired; // Closed as soon as the last reader is done
+        boolean deleteOnClose;
+        // Time index: marks[i] is a record position and before[i] the newest origin timestamp of the records ahead of it
+        int[] marks = new int[8];
+        long[] before = new long[8];
+        int markCount;
+
+        Segment(File directory, long baseOffset) throws IOException {
+            this.baseOffset = baseOffset;
+            this.file = new File(directory, String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+
+        // Called for every record in append order
+        void recordAdded(int position, long originTimestamp) {
+            if (position >= markCount * (long) MARK_INTERVAL) {
+                if (markCount == marks.length) {
+                    marks = Arrays.copyOf(marks, markCount * 2);
+                    before = Arrays.copyOf(before, markCount * 2);
+                }
+                marks[markCount] = position;
+                before[markCount] = maxTimestamp;
+                markCount++;
+            }
+            minTimestamp = Math.min(minTimestamp, originTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, originTimestamp);
+        }
+
+        /**
+         * Position of the first record originated at or after {@code since}, or {@code size} if
+         * there is none. Every record before it is older.
+         */
+        int seek(long since) {
+            if (minTimestamp >= since) return 0;
+            // The last mark with only older records ahead of it; the answer lies within one interval of it
+            int low = 0;
+            int high = markCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (before[middle] < since) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            int position = markCount == 0 ? 0 : marks[low];
+            while (position < size && buffer.getLong(position + 12) < since) {
+                position += RECORD_HEADER + buffer.getInt(position);
+            }
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + " (" + size + " bytes)";
+        }
+    }
+
+    /** Receives the records decoded from a replay stream. */
+    interface RecordHandler {
+        void onRecord(long messageId, long originTimestamp, byte[] payload);
+    }
+
+
+    public GossipStore(File directory, long maxAgeMillis, long maxBytes) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create gossip store directory: " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+        recover();
+    }
+
+    // Re-open existing segments and rebuild the index by scanning their records
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                long baseOffset;
+                try {
+                    baseOffset = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue; // Not one of our segments
+                }
+                Segment segment = new Segment(directory, baseOffset);
+                scan(segment);
+                segments.put(baseOffset, segment);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            active = new Segment(directory, 0);
+            segments.put(0L, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        enforceRetention();
+    }
+
+    // Segments are pre-allocated and zero-filled, so the first zero length marks the end of the data
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER <= SEGMENT_SIZE) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER + length > SEGMENT_SIZE) break;
+            long messageId = buffer.getLong(position + 4);
+            long originTimestamp = buffer.getLong(position + 12);
+            index.put(messageId, segment.baseOffset + position);
+            segment.recordAdded(position, originTimestamp);
+            position += RECORD_HEADER + length;
+        }
+        segment.size = position;
+    }
+
+    /**
+     * Appends a message to the log. Returns false if the message is already stored.
+     */
+    public boolean append(long messageId, long originTimestamp, byte[] payload) throws IOException {
+        return append(messageId, originTimestamp, payload, 0, payload.length);
+    }
+
+    /**
+     * Appends {@code length} bytes of {@code data} starting at {@code offset}, so callers can store
+     * a message straight out of a receive buffer. Throws an {@link IOException} once the store is closed.
+     */
+    public synchronized boolean append(long messageId, long originTimestamp, byte[] data, int offset, int length) throws IOException {
+        if (closed) throw new IOException("Gossip store is closed: " + directory);
+        if (length <= 0 || RECORD_HEADER + length > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid gossip payload size: " + length);
+        }
+        if (index.containsKey(messageId)) return false;
+
+        if (active.size + RECORD_HEADER + length > SEGMENT_SIZE) {
+            roll();
+        }
+
+        int position = active.size;
+        MappedByteBuffer buffer = active.buffer;
+        buffer.putLong(position + 4, messageId);
+        buffer.putLong(position + 12, originTimestamp);
+        buffer.put(position + RECORD_HEADER, data, offset, length);
+        buffer.putInt(position, length); // Written last so a torn record reads as end of log
+
+        active.size += RECORD_HEADER + length;
+        active.recordAdded(position, originTimestamp);
+        index.put(messageId, active.baseOffset + position);
+        return true;
+    }
+
+    private void roll() throws IOException {
+        active.buffer.force();
+        Segment next = new Segment(directory, active.baseOffset + active.size);
+        segments.put(next.baseOffset, next);
+        active = next;
+        enforceRetention();
+    }
+
+    public synchronized boolean contains(long messageId) {
+        return index.containsKey(messageId);
+    }
+
+    /**
+     * Returns the payload of a stored message, or null if it is unknown or already expired.
+     */
+    public synchronized byte[] read(long messageId) {
+        long offset = index.get(messageId, -1);
+        if (offset < 0) return null;
+        Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+        if (entry == null) return null;
+
+        Segment segment = entry.getValue();
+        int position = (int) (offset - segment.baseOffset);
+        byte[] payload = new byte[segment.buffer.getInt(position)];
+        segment.buffer.get(position + RECORD_HEADER, payload);
+        return payload;
+    }
+
+    /**
+     * Streams the records that may have originated at or after {@code since} to the target. Each
+     * segment is sent from its first record that is recent enough, found with the time index, and
+     * the raw bytes are handed to the kernel with {@link FileChannel#transferTo}. Records arrive in
+     * the order they were stored, not by origin time, so the receiver still filters out older ones
+     * further on. The transfer runs outside the store's lock; segments dropped meanwhile stay open
+     * until it is done.
+     */
+    public long replaySince(long since, WritableByteChannel target) throws IOException {
+        return replaySince(since, target, () -> {
+        });
+    }
+
+    /**
+     * As {@link #replaySince(long, WritableByteChannel)}, sending at most {@code TRANSFER_STEP}
+     * bytes per call to the target and running {@code beforeTransfer} before each, so the caller can
+     * bound how long any one blocking write may take.
+     */
+    public long replaySince(long since, WritableByteChannel target, Runnable beforeTransfer) throws IOException {
+        List<Segment> matching = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment.size > 0 && segment.maxTimestamp >= since) {
+                    segment.readers++;
+                    matching.add(segment);
+                    starts.add(segment.seek(since));
+                    sizes.add(segment.size);
+                }
+            }
+        }
+
+        long transferred = 0;
+        try {
+            for (int i = 0; i < matching.size(); i++) {
+                FileChannel channel = matching.get(i).channel;
+                long start = starts.get(i);
+                long position = start;
+                long size = sizes.get(i);
+                while (position < size) {
+                    beforeTransfer.run();
+                    long sent = channel.transferTo(position, Math.min(size - position, TRANSFER_STEP), target);
+                    if (sent <= 0) break;
+                    position += sent;
+                }
+                transferred += position - start;
+            }
+        } finally {
+            synchronized (this) {
+                for (Segment segment : matching) {
+                    if (--segment.readers == 0 && segment.retired) closeSegment(segment);
+                }
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * Decodes a replay stream until end of input, passing on records originated at or after {@code since}.
+     */
+    static int readReplay(InputStream input, long since, RecordHandler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        int count = 0;
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length <= 0 || length > SEGMENT_SIZE - RECORD_HEADER) {
+                throw new IOException("Corrupt replay record length: " + length);
+            }
+            long messageId = in.readLong();
+            long originTimestamp = in.readLong();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (originTimestamp >= since) {
+                handler.onRecord(messageId, originTimestamp, payload);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops whole segments that are older than the retention age or push the log over its size limit.
+     * The active segment is never dropped.
+     */
+    public synchronized void enforceRetention() {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        long totalBytes = (long) segments.size() * SEGMENT_SIZE;
+
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment == active) break;
+
+            boolean expired = segment.maxTimestamp < cutoff;
+            boolean oversized = totalBytes > maxBytes;
+            if (!expired && !oversized) break;
+
+            iterator.remove();
+            totalBytes -= SEGMENT_SIZE;
+            dropFromIndex(segment);
+            retire(segment, true);
+        }
+    }
+
+    // Closes the segment now, or once the replays still reading it are done
+    private void retire(Segment segment, boolean delete) {
+        segment.retired = true;
+        segment.deleteOnClose = delete;
+        if (segment.readers == 0) closeSegment(segment);
+    }
+
+    private void closeSegment(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing gossip segment " + segment + ": " + e.getMessage());
+        }
+        if (segment.deleteOnClose && !segment.file.delete()) {
+            System.err.println("Could not delete gossip segment " + segment.file.getAbsolutePath());
+        }
+    }
+
+    private void dropFromIndex(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        for (int position = 0; position < segment.size; position += RECORD_HEADER + buffer.getInt(position)) {
+            index.remove(buffer.getLong(position + 4));
+        }
+    }
+
+    public synchronized void flush() {
+        if (!closed) active.buffer.force();
+    }
+
+    /** Closes every segment. Later appends fail; reads and replays find nothing. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        active.buffer.force();
+        for (Segment segment : segments.values()) {
+            retire(segment, false);
+        }
+        segments.clear();
+        index.clear();
+    }
+}
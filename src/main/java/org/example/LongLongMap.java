@@ -0,0 +1,135 @@
+package org.example;
+
+import java.util.Arrays;
+
+
+/**
+ * Open-addressing hash map from long keys to long values.
+ *
+ * Used on the per-message paths instead of {@code HashMap<Long, ...>} so lookups and inserts
+ * do not box. Not thread-safe; callers synchronize externally.
+ */
+class LongLongMap {
+
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    // Key 0 marks an empty slot, so it is tracked separately
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    boolean containsKey(long key) {
+        if (key == EMPTY) return hasZeroKey;
+        for (int slot = mix(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value mapped to the key, or {@code missing} if there is none.
+     */
+    long get(long key, long missing) {
+        if (key == EMPTY) return hasZeroKey ? zeroValue : missing;
+        for (int slot = mix(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return values[slot];
+        }
+        return missing;
+    }
+
+    /**
+     * Maps the key to the value. Returns true if the key was not present before.
+     */
+    boolean put(long key, long value) {
+        if (key == EMPTY) {
+            boolean added = !hasZeroKey;
+            hasZeroKey = true;
+            zeroValue = value;
+            if (added) size++;
+            return added;
+        }
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR) grow();
+        return true;
+    }
+
+    /**
+     * Removes the key. Returns true if it was present.
+     */
+    boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!hasZeroKey) return false;
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int slot = mix(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) return false;
+            slot = (slot + 1) & mask;
+        }
+        size--;
+
+        // Backward-shift the rest of the probe chain so lookups never need tombstones
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = 0;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new long[oldValues.length << 1];
+        mask = keys.length - 1;
+        size = hasZeroKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
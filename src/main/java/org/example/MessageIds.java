@@ -0,0 +1,45 @@
+package org.example;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+
+/**
+ * Derives 64-bit gossip message IDs from message content.
+ *
+ * Two 32-bit MurmurHash3 passes with different seeds are combined instead of using the 128-bit
+ * variant, which returns a fresh array on every call. Gossip messages are short, so the second
+ * pass is cheaper than the allocation.
+ */
+final class MessageIds {
+
+    private static final int HIGH_SEED = 0x5EED_0001;
+    private static final int LOW_SEED = 0x5EED_0002;
+
+    private MessageIds() {
+    }
+
+    static long of(byte[] data, int offset, int length) {
+        long high = MurmurHash3.hash32x86(data, offset, length, HIGH_SEED);
+        long low = MurmurHash3.hash32x86(data, offset, length, LOW_SEED);
+        return (high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    static long of(byte[] data) {
+        return of(data, 0, data.length);
+    }
+
+    /**
+     * Parses the leading decimal timestamp of a {@code <timestamp>:<ip>:<port>:<uuid>} message.
+     * Returns {@code fallback} if the message does not start with one.
+     */
+    static long originTimestamp(byte[] data, int offset, int end, long fallback) {
+        long value = 0;
+        int i = offset;
+        for (; i < end && data[i] != ':'; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || i - offset >= 18) return fallback;
+            value = value * 10 + digit;
+        }
+        return i == offset ? fallback : value;
+    }
+}
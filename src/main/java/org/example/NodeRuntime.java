@@ -0,0 +1,219 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Threads and buffers shared by every node in the JVM.
+ *
+ * A node owns no threads of its own. Periodic jobs run on the shared scheduler and workers, bulk
+ * transfers on separate upload and download threads, inbound sockets are served by one
+ * {@link EventLoop}, outbound traffic goes through one {@link TrafficScheduler} and large
+ * payloads are assembled in one {@link BufferPool}. Hosting thousands of peers therefore costs
+ * their state, not thousands of threads.
+ */
+public class NodeRuntime implements AutoCloseable {
+
+    private static final int SCHEDULER_THREADS = 2;
+    private static final int WORKER_THREADS = 16; // Blocking jobs: periodic jobs, seed requests
+    private static final int UPLOAD_THREADS = 4; // Serve chunk pulls and replays to other peers
+    private static final int DOWNLOAD_THREADS = 4; // Pull chunks, request replays and probe rewiring candidates
+    private static final int CONTROL_THREADS = 4; // Reserved for inbound pings and handshakes
+    private static final int DATA_THREADS = 4; // Process inbound gossip frames handed over by the event loop
+    private static final int CONTROL_WORKERS = 2; // Outbound workers that only send control traffic
+    private static final int GOSSIP_WORKERS = 2; // Outbound workers shared by both lanes
+    private static final int CONTROL_WEIGHT = 4; // Control tasks a shared worker runs per gossip frame
+    private static final int GOSSIP_QUEUE_CAPACITY = 1024; // Outbound gossip frames queued before shedding
+    private static final int POOLED_BUFFERS_PER_SIZE = 256; // Enough small buffers for the inbound frames in flight
+    private static final long POOLED_BYTES = ChunkTransfer.MAX_PAYLOAD; // Room for one of the largest payloads
+    private static final long DEADLINE_CHECK_INTERVAL = 1000; // How late an overrun transfer may be closed
+
+    private static NodeRuntime shared;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final ExecutorService uploads;
+    private final ExecutorService downloads;
+    private final ExecutorService controlLane;
+    private final DataLane dataLane;
+    private final EventLoop eventLoop;
+    private final TrafficScheduler outbound;
+    private final BufferPool bufferPool;
+    private final ChannelDeadlines deadlines = new ChannelDeadlines();
+
+
+    /** Handle on a job started with {@link #repeat}. */
+    final class Periodic {
+        private final Runnable task;
+        private final LongSupplier delay;
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> next;
+
+        private Periodic(Runnable task, LongSupplier delay) {
+            this.task = task;
+            this.delay = delay;
+        }
+
+        private void schedule() {
+            if (cancelled) return;
+            try {
+                next = scheduler.schedule(() -> {
+                    try {
+                        workers.execute(this::runOnce);
+                    } catch (RejectedExecutionException e) {
+                        cancelled = true; // Runtime is shutting down
+                    }
+                }, delay.getAsLong(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+            }
+        }
+
+        private void runOnce() {
+            if (cancelled) return;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                schedule();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> future = next;
+            if (future != null) future.cancel(false);
+        }
+    }
+
+
+    public NodeRuntime() throws IOException {
+        this(WORKER_THREADS, UPLOAD_THREADS, DOWNLOAD_THREADS, CONTROL_THREADS, DATA_THREADS, CONTROL_WORKERS,
+                GOSSIP_WORKERS, GOSSIP_QUEUE_CAPACITY);
+    }
+
+    public NodeRuntime(int workerThreads, int uploadThreads, int downloadThreads, int controlThreads, int dataThreads,
+                       int controlWorkers, int gossipWorkers, int gossipQueueCapacity) throws IOException {
+        this.scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, runnable -> new Thread(runnable, "node-scheduler"));
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> new Thread(runnable, "node-worker"));
+        this.uploads = Executors.newFixedThreadPool(uploadThreads, runnable -> new Thread(runnable, "transfer-upload"));
+        this.downloads = Executors.newFixedThreadPool(downloadThreads, runnable -> new Thread(runnable, "transfer-download"));
+        this.controlLane = Executors.newFixedThreadPool(controlThreads, runnable -> {
+            Thread thread = new Thread(runnable, "control-inbound");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+        this.dataLane = new DataLane(dataThreads, "gossip-inbound");
+        this.eventLoop = new EventLoop("node-io");
+        this.outbound = new TrafficScheduler(controlWorkers, gossipWorkers, CONTROL_WEIGHT, gossipQueueCapacity);
+        this.bufferPool = new BufferPool(ChunkTransfer.MAX_PAYLOAD, POOLED_BUFFERS_PER_SIZE, POOLED_BYTES);
+        eventLoop.start();
+        dataLane.start();
+        outbound.start();
+        scheduler.scheduleWithFixedDelay(deadlines::check, DEADLINE_CHECK_INTERVAL, DEADLINE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** The runtime used by {@code main}, created on first use. */
+    public static synchronized NodeRuntime shared() {
+        if (shared == null) {
+            try {
+                shared = new NodeRuntime();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Runs the task on a worker after the delay, then again each time the delay has passed since
+     * the previous run finished. The delay is read again before every run.
+     */
+    Periodic repeat(Runnable task, LongSupplier delay) {
+        Periodic periodic = new Periodic(task, delay);
+        periodic.schedule();
+        return periodic;
+    }
+
+    Periodic repeat(Runnable task, long delayMillis) {
+        return repeat(task, () -> delayMillis);
+    }
+
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    ExecutorService workers() {
+        return workers;
+    }
+
+    /**
+     * Threads that stream chunks and store segments to other peers. They are kept apart from the
+     * workers so long transfers cannot delay heartbeats or periodic jobs.
+     */
+    ExecutorService uploads() {
+        return uploads;
+    }
+
+    /**
+     * Threads that pull chunks and replays from other peers and probe rewiring candidates. Separate from {@link #uploads()} so that
+     * peers in one JVM pulling from each other never wait for a serve stuck behind their own pulls.
+     */
+    ExecutorService downloads() {
+        return downloads;
+    }
+
+    ExecutorService controlLane() {
+        return controlLane;
+    }
+
+    /**
+     * Threads that process inbound gossip, so the event loop only frames and classifies. Each link
+     * has at most one task queued here and stops reading while its own backlog is full.
+     */
+    DataLane dataLane() {
+        return dataLane;
+    }
+
+    EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    TrafficScheduler outbound() {
+        return outbound;
+    }
+
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /** Deadlines for the blocking transfers on {@link #uploads()}. */
+    ChannelDeadlines deadlines() {
+        return deadlines;
+    }
+
+    /** Stops every shared thread. Close the nodes first. */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        uploads.shutdownNow();
+        downloads.shutdownNow();
+        controlLane.shutdownNow();
+        dataLane.close();
+        eventLoop.close();
+        outbound.close();
+        synchronized (NodeRuntime.class) {
+            if (shared == this) shared = null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * A persistent outbound connection that never blocks the thread sending on it.
+ *
+ * The connect runs on the {@link EventLoop}. A sender writes straight to the socket when nothing
+ * is queued; whatever the socket does not take is copied into pooled buffers, and the loop writes
+ * it once the socket drains. Instead of waiting on a slow or frozen neighbour, the link closes
+ * itself when the connect takes longer than {@code timeout}, when queued bytes have not moved for
+ * {@code timeout}, or when the queue would pass {@code maxQueuedBytes}. The sender then sees an {@link IOException} and the
+ * next send opens a new link.
+ */
+class OutboundLink implements EventLoop.Handler {
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final BufferPool pool;
+    private final int maxQueuedBytes;
+    private final long timeout;
+    private final Runnable armWrite = this::armWrite;
+    // Ring of pooled buffers waiting for the socket, guarded by this
+    private ByteBuffer[] queue = new ByteBuffer[8];
+    private int first;
+    private int count;
+    private int queuedBytes;
+    private long waitingSince; // When the connect started or the socket last took queued bytes, guarded by this
+    private boolean connecting = true; // Guarded by this
+    private boolean writeArmed; // The loop is waiting for the socket to connect or drain, guarded by this
+    private boolean registered; // Handed to the loop, guarded by this
+    private SelectionKey key; // Set on the loop's first callback
+    private volatile boolean closed;
+
+
+    private OutboundLink(SocketChannel channel, EventLoop eventLoop, BufferPool pool, int maxQueuedBytes, long timeout) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.pool = pool;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts connecting and queues {@code hello} as the first bytes of the link. Returns at once;
+     * frames sent before the connect completes are queued behind the hello.
+     */
+    static OutboundLink open(InetSocketAddress address, ByteBuffer hello, EventLoop eventLoop, BufferPool pool,
+                             int maxQueuedBytes, long timeout) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            OutboundLink link = new OutboundLink(channel, eventLoop, pool, maxQueuedBytes, timeout);
+            synchronized (link) {
+                link.waitingSince = System.currentTimeMillis();
+                link.enqueue(hello);
+                if (channel.connect(address)) {
+                    link.connecting = false;
+                    link.flushQueue();
+                }
+                if (link.count > 0 || link.connecting) {
+                    link.writeArmed = true;
+                    link.registered = true;
+                    eventLoop.register(channel, link.connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_WRITE, link);
+                }
+            }
+            return link;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the frame from its position to its limit, or queues what the socket does not take.
+     * Throws if the link is closed, or closes it and throws if it is stalled or over its backlog.
+     */
+    synchronized void send(ByteBuffer frame) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (count == 0 && !connecting) {
+            channel.write(frame);
+            if (!frame.hasRemaining()) return;
+            waitingSince = System.currentTimeMillis();
+        } else if (System.currentTimeMillis() - waitingSince > timeout) {
+            close();
+            throw new IOException(connecting ? "Connect timed out" : "Neighbour stopped reading");
+        }
+        if (queuedBytes + frame.remaining() > maxQueuedBytes) {
+            close();
+            throw new IOException("Send backlog over " + maxQueuedBytes + " bytes");
+        }
+        enqueue(frame);
+        if (writeArmed) return;
+        writeArmed = true;
+        if (registered) {
+            eventLoop.execute(armWrite);
+        } else {
+            registered = true;
+            eventLoop.register(channel, SelectionKey.OP_WRITE, this);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /** Closes the channel without waiting for a sender, then drops the queued bytes. */
+    void close() {
+        closed = true;
+        EventLoop.closeQuietly(channel);
+        synchronized (this) {
+            while (count > 0) {
+                pool.release(queue[first]);
+                queue[first] = null;
+                first = (first + 1) % queue.length;
+                count--;
+            }
+            queuedBytes = 0;
+        }
+    }
+
+    // Runs on the loop: finishes the connect, then writes queued bytes until the socket is full
+    @Override
+    public void ready(SelectionKey key) {
+        try {
+            synchronized (this) {
+                this.key = key;
+                if (connecting) {
+                    if (!channel.finishConnect()) return;
+                    connecting = false;
+                }
+                flushQueue();
+                if (count == 0) {
+                    writeArmed = false;
+                    key.interestOps(0);
+                } else {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Runs on the loop once a sender has queued bytes on a connected link
+    private void armWrite() {
+        SelectionKey current = key;
+        try {
+            if (current != null) current.interestOps(SelectionKey.OP_WRITE);
+        } catch (CancelledKeyException e) {
+            // Closed since the bytes were queued
+        }
+    }
+
+    private void flushQueue() throws IOException {
+        while (count > 0) {
+            ByteBuffer buffer = queue[first];
+            int before = buffer.remaining();
+            channel.write(buffer);
+            int written = before - buffer.remaining();
+            queuedBytes -= written;
+            if (written > 0) waitingSince = System.currentTimeMillis();
+            if (buffer.hasRemaining()) return; // Socket full, the loop finishes the rest
+            pool.release(buffer);
+            queue[first] = null;
+            first = (first + 1) % queue.length;
+            count--;
+        }
+    }
+
+    // Copies the frame's remaining bytes into a pooled buffer at the end of the queue
+    private void enqueue(ByteBuffer frame) {
+        ByteBuffer copy = pool.acquire(frame.remaining());
+        queuedBytes += frame.remaining();
+        copy.put(frame).flip();
+        if (count == queue.length) {
+            ByteBuffer[] larger = new ByteBuffer[queue.length * 2];
+            for (int i = 0; i < count; i++) {
+                larger[i] = queue[(first + i) % queue.length];
+            }
+            queue = larger;
+            first = 0;
+        }
+        queue[(first + count) % queue.length] = copy;
+        count++;
+    }
+}
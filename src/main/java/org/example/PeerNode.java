@@ -2,36 +2,179 @@ package org.example;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
 
-public class PeerNode {
+/**
+ * A gossip peer. Any number of peers can live in one JVM: each holds only its own overlay state,
+ * while threads, the I/O event loop, outbound lanes and buffers come from a shared
+ * {@link NodeRuntime}. Create a peer with a {@link Config}, then {@link #start()} and
+ * {@link #stop()} or {@link #close()} it.
+ */
+public class PeerNode implements AutoCloseable {
 
 
     private static final String CONFIG_FILE = "config.txt";
     private static final String LOG_FILE = "peer_log.txt";
-    private static final int MESSAGE_INTERVAL = 5000; // 5 seconds
-    private static final int PING_INTERVAL = 13000; // 13 seconds
-    private static final int MAX_MISSED_PINGS = 3;
+    private static final int MAX_MESSAGE_INTERVAL = 60000; // Slowest rate under sustained congestion
+    private static final long RATE_CONTROL_INTERVAL = 1000; // 1 second
+    private static final double NEIGHBOUR_RATE = 200; // Gossip frames per second to one neighbour
+    private static final double NEIGHBOUR_BURST = 400;
+    private static final double ORIGIN_RATE = 50; // Relayed messages per second from one origin
+    private static final double ORIGIN_BURST = 100;
+    private static final int ORIGIN_BUCKETS = 256; // Origins (ip and port) are hashed onto a fixed set of buckets
+    private static final long REWIRE_INTERVAL = 60000; // 1 minute between rewiring steps
+    private static final int REWIRE_CANDIDATES = 5; // Non-neighbours probed per rewiring step
+    private static final double REWIRE_GAIN = 2.0; // A candidate must be this many times closer to replace a neighbour
+    private static final double RTT_SMOOTHING = 0.3; // Weight of the newest sample in the RTT average
+    private static final int MIN_DEGREE = 2; // Never rewire a neighbour that would drop below this
+    private static final int MAX_DEGREE = 32; // Never rewire towards a candidate at or above this
+    // "flood" relays every message to every neighbour, "plumtree" pushes along a spanning tree and announces lazily
+    private static final boolean PLUMTREE_MODE = "plumtree".equalsIgnoreCase(System.getProperty("gossip.mode", "flood"));
+    private static final long TREE_REPAIR_INTERVAL = 100;
+    private static final String IHAVE_PREFIX = "ihave:";
+    private static final int IHAVE_BATCH_BYTES = 1024; // An IHAVE batch is sent once its line reaches this length
+    private static final int TREE_PAYLOAD_CACHE = 256; // Messages kept for grafts when there is no store
+    private static final long SNAPSHOT_INTERVAL = 10000; // 10 seconds between state snapshots
+    private static final long SNAPSHOT_MAX_AGE = 10 * 60 * 1000; // Older snapshots fall back to a cold start
+    private static final long REPLAY_OVERLAP = 5000; // Replay a little before the snapshot to cover in-flight gossip
+    private static final String PORT_TOKEN = "{port}"; // Replaced by the peer's port in the snapshot path
+    private static final File SNAPSHOT_FILE = new File(System.getProperty("gossip.stateFile", "peer_state_" + PORT_TOKEN + ".bin"));
+    // Fraction of neighbours kept as random long links that rewiring never replaces
+    private static final double LONG_LINK_FRACTION = Double.parseDouble(System.getProperty("gossip.longLinkFraction", "0.25"));
+    private static final int PING_TIMEOUT = GossipRules.PING_TIMEOUT;
+    private static final int REPLAY_TIMEOUT = 10000; // A replay that moves nothing for 10 seconds is abandoned, on either side
+    private static final int MAX_REPLAYS_PER_REQUESTER = 2; // Half the upload threads, as for chunk serves
     private static final int MAX_HEARTBEAT_RETRIES = 3;
-    private static final long HEARTBEAT_INTERVAL = 5000; // 5 seconds
-    private static Map<String, Integer> seedFailures = new HashMap<>();
-    private static String peerIp;
-    private static int peerPort;
-    private static final Map<String, PeerInfo> connectedPeers = new HashMap<>();
-    private static final Set<Integer> messageList = new HashSet<>();
-    private static final Random random = new Random(); // Single Random instance
+    private static final String STORE_DIR = "gossip_store";
+    private static final long STORE_MAX_AGE = 60 * 60 * 1000; // 1 hour
+    private static final long STORE_MAX_BYTES = 256L * 1024 * 1024; // 256 MB
+    private static final long STORE_MAINTENANCE_INTERVAL = 30000; // 30 seconds
+    private static final int DEDUP_WINDOW = 1 << 16; // Message IDs remembered for duplicate detection
+    private static final int MAX_GOSSIP_LINKS = 128; // Inbound links served at once, a gossip and a control link per neighbour
+    private static final int MAX_PENDING_FRAMES = 256; // Frames queued per inbound link before it stops being read
+    private static final int MAX_LINK_BACKLOG = 256 * 1024; // Bytes queued for one neighbour before its link is dropped
+    private static final int INLINE_LIMIT = 16 * 1024; // Larger application payloads are chunked
+    private static final long TOPIC_ADVERTISE_INTERVAL = 10000; // 10 seconds between subscription refreshes
+    private static final long TOPIC_EXPIRY = 3 * TOPIC_ADVERTISE_INTERVAL; // Forget a neighbour's topics after missed refreshes
+    private static final long CHUNK_CACHE_BYTES = 128L * 1024 * 1024; // Chunks kept for neighbours to pull
+    private static final byte[] GOSSIP_PREFIX = "gossip:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOPICS_PREFIX = PubSub.TOPICS_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RECEIVED_PREFIX = "Received gossip at ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FROM_SEPARATOR = " from ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MESSAGE_SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final NodeRuntime runtime;
+    private final Config config;
+    private final Map<String, Integer> seedFailures = new ConcurrentHashMap<>();
+    private String peerIp;
+    private int peerPort;
+    private File stateFile; // Snapshot path for this peer's port, null to take no snapshots
+    private final Map<String, PeerInfo> connectedPeers = new ConcurrentHashMap<>();
+    private volatile PeerInfo[] neighbours = new PeerInfo[0]; // Copy of connectedPeers for the relay path, replaced on every change
+    private final Object neighboursLock = new Object();
+    private final DedupWindow messageList;
+    private final Random random = new Random();
+    private volatile GossipStore gossipStore; // Null when the config disables the store or the peer is stopped
+    private final Map<String, SeedConnection> seedConnections = new ConcurrentHashMap<>();
+    private final Set<PeerInfo> knownPeers = ConcurrentHashMap.newKeySet(); // Peers the seeds currently list
+    private final Object logLock = new Object();
+    private OutputStream logOut; // Guarded by logLock
+    private final byte[] logDigits = new byte[20]; // Guarded by logLock
+
+    private final GossipRateController rateController =
+            new GossipRateController(GossipRules.MESSAGE_INTERVAL, MAX_MESSAGE_INTERVAL, GossipRules.MIN_RELAY_FANOUT);
+    private final TokenBucket[] originBuckets = new TokenBucket[ORIGIN_BUCKETS]; // Created on first use
+    private final TreeLinks treeLinks = new TreeLinks();
+    private final RelayTargets relayTargets = new RelayTargets();
+    private final PingTargets pingTargets = new PingTargets();
+    private final FailureDetector failureDetector = new FailureDetector(GossipRules.MAX_MISSED_PINGS, PING_TIMEOUT);
+    private final Plumtree<PeerInfo> plumtree;
+    private final Map<Long, byte[]> treePayloads = new LinkedHashMap<>(); // Insertion order, guarded by itself
+    private final TrafficScheduler outbound;
+    private final TrafficScheduler.FrameSender frameSender = this::sendGossipFrame;
+    private final TrafficScheduler.FrameSender directSender = this::sendDirectFrame;
+    private final PubSub<PeerInfo> pubsub = new PubSub<>(Clock.SYSTEM, TOPIC_EXPIRY);
+    private final ChunkTransfer chunks;
+    private final ServeLimits replayLimits = new ServeLimits(MAX_REPLAYS_PER_REQUESTER);
+
+    // Inbound connections live on the shared event loop until they are handed to a worker
+    private ServerSocketChannel serverChannel;
+    private final Set<SocketChannel> inbound = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inboundLinks = new AtomicInteger();
+    private final List<NodeRuntime.Periodic> jobs = new ArrayList<>();
+    private final AtomicBoolean rewiring = new AtomicBoolean(); // A rewiring step is waiting on its probes
+    private volatile boolean running;
+
+
+    /**
+     * Per-peer settings. The defaults reproduce a standalone peer; a JVM hosting many peers
+     * usually gives each its own port and turns off the log file, store and snapshot.
+     */
+    public static class Config {
+        public String ip; // Null for the local host address
+        public int port = Integer.getInteger("gossip.port", 0); // 0 for a free port, which starts cold
+        public File seedFile = new File(CONFIG_FILE);
+        public File logFile = new File(LOG_FILE); // Null to log to the console only
+        public boolean console = true;
+        public File storeDir = new File(STORE_DIR); // Null to keep no store and serve no replays; Plumtree then answers grafts from memory
+        public File stateFile = SNAPSHOT_FILE; // "{port}" is replaced by the peer's port, found by scanning on a free port; null for none
+        public int dedupWindow = DEDUP_WINDOW;
+        public long chunkCacheBytes = CHUNK_CACHE_BYTES;
+        public boolean plumtree = PLUMTREE_MODE;
+        public boolean originate = true; // Gossip a message every few seconds
+    }
+
+
+    public PeerNode(NodeRuntime runtime, Config config) {
+        this.runtime = runtime;
+        this.config = config;
+        this.messageList = new DedupWindow(config.dedupWindow);
+        this.plumtree = new Plumtree<>(treeLinks, Clock.SYSTEM, GossipRules.IHAVE_TIMEOUT, GossipRules.GRAFT_TIMEOUT);
+        this.outbound = runtime.outbound();
+        this.chunks = new ChunkTransfer(runtime.bufferPool(), config.chunkCacheBytes, runtime.downloads(), runtime.deadlines());
+    }
+
+
+    /**
+     * Receives application messages published on a topic. Called on a data lane thread or a worker
+     * shared with every other node in the JVM, so handlers should return quickly. The payload is
+     * only valid during the call.
+     */
+    public interface MessageHandler {
+        void onMessage(String topic, ByteBuffer payload);
+    }
 
 
     static class PeerInfo {
         String ip;
         int port;
-        int missedPings;
+        volatile int missedPings; // Counted up by the ping round, cleared by the pong on the control lane
+        volatile OutboundLink link; // Persistent outbound gossip connection, opened on first use
+        volatile OutboundLink controlLink; // Second connection for control lines, so they never wait behind gossip
+        final Object controlLock = new Object(); // Guards opening controlLink; the peer itself guards opening link
+        final TokenBucket sendBudget = new TokenBucket(NEIGHBOUR_RATE, NEIGHBOUR_BURST);
+        volatile double rttMillis = -1; // Smoothed ping round trip, -1 until measured
+        volatile int degree = -1; // Neighbour count the peer reported in its last pong
+        boolean longLink; // Random long link kept for connectivity, never rewired
 
         PeerInfo(String ip, int port) {
             this.ip = ip;
@@ -39,6 +182,10 @@ public class PeerNode {
             this.missedPings = 0;
         }
 
+        void recordRtt(double sample) {
+            rttMillis = rttMillis < 0 ? sample : RTT_SMOOTHING * sample + (1 - RTT_SMOOTHING) * rttMillis;
+        }
+
         @Override
         public String toString() {
             return ip + ":" + port;
@@ -60,40 +207,214 @@ public class PeerNode {
 
 
 
-    private static void sendHeartbeatToSeeds() {
-        while (true) {
+    /**
+     * Carries Plumtree messages over the gossip links. GRAFT and PRUNE are rare and go on the
+     * control lane and each neighbour's control link. IHAVEs, one per delivery and lazy neighbour, and graft replies carrying whole
+     * messages go on the gossip lane and are shed with it. IHAVEs are batched per neighbour as
+     * {@code ihave:<id>,<id>,...} and sent when a batch fills or on the next repair tick.
+     */
+    class TreeLinks implements Plumtree.Transport<PeerInfo> {
+        private final Map<PeerInfo, StringBuilder> pendingIHaves = new HashMap<>(); // Guarded by this
+
+        @Override
+        public void sendIHave(PeerInfo peer, long messageId) {
+            String line;
+            synchronized (this) {
+                StringBuilder batch = pendingIHaves.computeIfAbsent(peer, key -> new StringBuilder(IHAVE_PREFIX));
+                if (batch.length() > IHAVE_PREFIX.length()) batch.append(',');
+                batch.append(Long.toHexString(messageId));
+                if (batch.length() < IHAVE_BATCH_BYTES) return;
+                pendingIHaves.remove(peer);
+                line = batch.toString();
+            }
+            sendLinkData(peer, line);
+        }
+
+        // Sends every partly filled IHAVE batch
+        void flushIHaves() {
+            Map<PeerInfo, StringBuilder> batches;
+            synchronized (this) {
+                if (pendingIHaves.isEmpty()) return;
+                batches = new HashMap<>(pendingIHaves);
+                pendingIHaves.clear();
+            }
+            batches.forEach((peer, batch) -> sendLinkData(peer, batch.toString()));
+        }
+
+        @Override
+        public void sendGraft(PeerInfo peer, long messageId) {
+            sendLinkLine(peer, "graft:" + Long.toHexString(messageId));
+        }
+
+        @Override
+        public void sendPrune(PeerInfo peer) {
+            sendLinkLine(peer, "prune");
+        }
+
+        @Override
+        public void sendMessage(PeerInfo peer, long messageId) {
+            GossipStore store = gossipStore;
+            byte[] payload = store != null ? store.read(messageId) : cachedTreePayload(messageId);
+            if (payload == null) return; // Already expired
+            sendLinkData(peer, "gossip:" + new String(payload, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * The neighbours a gossip frame can be relayed to: the snapshot in {@code frame.neighbours},
+     * less the one it came from, those that did not advertise its topic and, in Plumtree mode, the
+     * lazy ones. A neighbour over its send budget is skipped when it is picked.
+     */
+    class RelayTargets implements FloodRelay.Neighbours<TrafficScheduler.OutboundFrame> {
+        @Override
+        public int count(TrafficScheduler.OutboundFrame frame) {
+            return frame.neighbours.length;
+        }
+
+        @Override
+        public boolean eligible(TrafficScheduler.OutboundFrame frame, int index) {
+            PeerInfo peer = frame.neighbours[index];
+            return peer != frame.exclude
+                    && (frame.topic == null || pubsub.wants(peer, frame.topic))
+                    && (!config.plumtree || plumtree.isEager(peer));
+        }
+
+        @Override
+        public void send(TrafficScheduler.OutboundFrame frame, int index) {
+            PeerInfo peer = frame.neighbours[index];
+            if (!peer.sendBudget.tryAcquire()) return; // Over budget for this neighbour, shed
+            sendFrame(peer, frame.buffer(), 0);
+        }
+    }
+
+    /**
+     * The neighbours a ping round goes over, from a snapshot of the neighbour array. Pings go out
+     * in parallel on the control lane so one slow peer cannot delay the rest.
+     */
+    class PingTargets implements FailureDetector.Links<PeerInfo[]> {
+        @Override
+        public int count(PeerInfo[] neighbours) {
+            return neighbours.length;
+        }
+
+        @Override
+        public boolean watched(PeerInfo[] neighbours, int index) {
+            return true;
+        }
+
+        @Override
+        public int missedPings(PeerInfo[] neighbours, int index) {
+            return neighbours[index].missedPings;
+        }
+
+        @Override
+        public void setMissedPings(PeerInfo[] neighbours, int index, int missedPings) {
+            neighbours[index].missedPings = missedPings;
+        }
+
+        @Override
+        public void ping(PeerInfo[] neighbours, int index) {
+            PeerInfo peer = neighbours[index];
+            outbound.submitControl(() -> sendPing(peer));
+        }
+
+        @Override
+        public void down(PeerInfo[] neighbours, int index) {
+            neighbourDead(neighbours[index]);
+        }
+    }
+
+    // Keep-alive connection to one seed, reused by every heartbeat
+    static class SeedConnection {
+        volatile Socket socket;
+        PrintWriter out;
+        BufferedReader in;
+        final AtomicBoolean inFlight = new AtomicBoolean(); // A heartbeat is queued or waiting on the seed
+
+        void open(PeerInfo seed) throws IOException {
+            Socket opened = new Socket();
             try {
-                Thread.sleep(HEARTBEAT_INTERVAL);
-                List<PeerInfo> seeds = loadSeeds();
-                for (PeerInfo seed : seeds) {
-                    String seedKey = seed.ip + ":" + seed.port;
-
-                    // Skip seed if it has exceeded max failures
-                    if (seedFailures.getOrDefault(seedKey, 0) >= MAX_HEARTBEAT_RETRIES) {
-                        System.out.println("Skipping seed " + seedKey + " due to repeated failures.");
-                        continue;
-                    }
+                opened.connect(new InetSocketAddress(seed.ip, seed.port), PING_TIMEOUT);
+                opened.setSoTimeout(PING_TIMEOUT); // A stalled seed must not hold a control worker
+            } catch (IOException e) {
+                opened.close();
+                throw e;
+            }
+            socket = opened;
+            out = new PrintWriter(socket.getOutputStream(), true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
 
-                    JSONObject heartbeatMessage = new JSONObject();
-                    heartbeatMessage.put("type", "heartbeat");
-                    heartbeatMessage.put("ip", peerIp);
-                    heartbeatMessage.put("port", peerPort);
+        void close() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+        }
 
-                    sendToSeed(seed, heartbeatMessage.toString());
-                    seedFailures.put(seedKey, 0); // Reset failure count on success
-                }
-            } catch (InterruptedException | IOException e) {
-                e.printStackTrace();
+        // Unblocks a heartbeat waiting on the seed without taking the connection's lock
+        void abort() {
+            Socket current = socket;
+            if (current == null) return;
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void sendHeartbeatToSeeds() {
+        List<PeerInfo> seeds;
+        try {
+            seeds = loadSeeds();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (PeerInfo seed : seeds) {
+            String seedKey = seed.ip + ":" + seed.port;
+
+            // Skip seed if it has exceeded max failures
+            if (seedFailures.getOrDefault(seedKey, 0) >= MAX_HEARTBEAT_RETRIES) {
+                System.out.println("Skipping seed " + seedKey + " due to repeated failures.");
+                continue;
+            }
+
+            JSONObject heartbeatMessage = new JSONObject();
+            heartbeatMessage.put("type", "heartbeat");
+            heartbeatMessage.put("ip", peerIp);
+            heartbeatMessage.put("port", peerPort);
+
+            // Only one heartbeat per seed at a time, so a slow seed ties up at most one worker
+            SeedConnection connection = seedConnections.computeIfAbsent(seedKey, key -> new SeedConnection());
+            if (!connection.inFlight.compareAndSet(false, true)) {
+                System.out.println("Previous heartbeat to seed " + seedKey + " still in flight, skipping.");
+                continue;
             }
+
+            // Heartbeats ride the control lane so gossip backlog cannot delay them
+            outbound.submitControl(() -> {
+                try {
+                    if (sendHeartbeat(seed, connection, heartbeatMessage.toString())) {
+                        seedFailures.put(seedKey, 0); // Reset failure count on success
+                    } else {
+                        seedFailures.merge(seedKey, 1, Integer::sum);
+                    }
+                } finally {
+                    connection.inFlight.set(false);
+                }
+            });
         }
     }
 
-    private static List<PeerInfo> loadSeeds() throws IOException {
+    private List<PeerInfo> loadSeeds() throws IOException {
         List<PeerInfo> seeds = new ArrayList<>();
-        File configFile = new File("config.txt");
+        File configFile = config.seedFile;
 
         if (!configFile.exists()) {
-            throw new FileNotFoundException("config.txt not found in the main directory!");
+            throw new FileNotFoundException(configFile + " not found!");
         }
 
         try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
@@ -115,7 +436,7 @@ public class PeerNode {
                 }
             }
         } catch (IOException e) {
-            System.out.println("Failed to load seeds from config.txt: " + e.getMessage());
+            System.out.println("Failed to load seeds from " + configFile + ": " + e.getMessage());
             throw e;
         }
 
@@ -125,7 +446,7 @@ public class PeerNode {
 
 
 /*
-    private static List<PeerInfo> loadSeeds() throws IOException {
+    private List<PeerInfo> loadSeeds() throws IOException {
         List<PeerInfo> seeds = new ArrayList<>();
         try (InputStream inputStream = PeerNode.class.getClassLoader().getResourceAsStream(CONFIG_FILE);
              BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
@@ -158,21 +479,62 @@ public class PeerNode {
         return seeds;
     }
 */
-    private static void logMessage(String message) {
-        try (FileWriter fw = new FileWriter(LOG_FILE, true); // Append mode
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(message);
-            System.out.println(message); // Also print to console
+    private void logMessage(String message) {
+        byte[] line = message.getBytes(StandardCharsets.UTF_8);
+        synchronized (logLock) {
+            writeLog(line, 0, line.length);
+            endLogLine();
+        }
+    }
+
+    // Writes the log line straight from the receive buffer so the hot path builds no strings
+    private void logReceivedGossip(long time, byte[] senderIp, byte[] data, int start, int end) {
+        synchronized (logLock) {
+            writeLog(RECEIVED_PREFIX, 0, RECEIVED_PREFIX.length);
+            int digitsStart = logDigits.length;
+            do {
+                logDigits[--digitsStart] = (byte) ('0' + time % 10);
+                time /= 10;
+            } while (time > 0);
+            writeLog(logDigits, digitsStart, logDigits.length - digitsStart);
+            writeLog(FROM_SEPARATOR, 0, FROM_SEPARATOR.length);
+            writeLog(senderIp, 0, senderIp.length);
+            writeLog(MESSAGE_SEPARATOR, 0, MESSAGE_SEPARATOR.length);
+            writeLog(data, start, end - start);
+            endLogLine();
+        }
+    }
+
+    private void writeLog(byte[] data, int offset, int length) {
+        if (config.logFile != null) {
+            try {
+                if (logOut == null) {
+                    logOut = new BufferedOutputStream(new FileOutputStream(config.logFile, true)); // Append mode
+                }
+                logOut.write(data, offset, length);
+            } catch (IOException e) {
+                System.err.println("Error writing to log file: " + e.getMessage());
+            }
+        }
+        if (config.console) {
+            System.out.write(data, offset, length); // Also print to console
+        }
+    }
+
+    private void endLogLine() {
+        writeLog(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+        try {
+            if (logOut != null) logOut.flush();
         } catch (IOException e) {
             System.err.println("Error writing to log file: " + e.getMessage());
         }
+        if (config.console) System.out.flush();
     }
 
-    private static void registerWithSeeds() throws IOException {
+    private void registerWithSeeds() throws IOException {
         List<PeerInfo> seeds = loadSeeds();
         Collections.shuffle(seeds);
-        int count = Math.floorDiv(seeds.size(), 2) + 1;
+        int count = GossipRules.seedQuorum(seeds.size());
 
         for (int i = 0; i < count; i++) {
             PeerInfo seed = seeds.get(i);
@@ -185,15 +547,42 @@ public class PeerNode {
         }
     }
 
-    private static void sendToSeed(PeerInfo seed, String message) {
-        try (Socket socket = new Socket(seed.ip, seed.port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+    private boolean sendHeartbeat(PeerInfo seed, SeedConnection connection, String message) {
+        synchronized (connection) {
+            // A kept-alive connection may have been closed by the seed since last time, so retry once on a fresh one
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (connection.socket == null) connection.open(seed);
+                    connection.out.println(message);
+                    String response = connection.in.readLine();
+                    if (response == null) throw new EOFException("Seed closed the connection");
+                    logMessage("Sent to seed " + seed.ip + ":" + seed.port + ": " + message + ", Received: " + response);
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    connection.close(); // The seed is stalled, not just closed, so a retry would wait again
+                    break;
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+        System.out.println("Failed to contact seed " + seed);
+        return false;
+    }
+
+    private boolean sendToSeed(PeerInfo seed, String message) {
+        try (Socket socket = new Socket()) {
+            // Runs on the control lane, so a hung seed must give the worker back as a heartbeat would
+            socket.connect(new InetSocketAddress(seed.ip, seed.port), PING_TIMEOUT);
+            socket.setSoTimeout(PING_TIMEOUT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             out.println(message); // Send JSON message
             String response = in.readLine(); // Read response
 
             logMessage("Sent to seed " + seed.ip + ":" + seed.port + ": " + message + ", Received: " + response);
+            return response != null;
 
         } catch (JSONException e) {
             System.err.println("JSON error: " + e.getMessage());
@@ -201,15 +590,17 @@ public class PeerNode {
         } catch (IOException e) {
             System.out.println("Failed to contact seed " + seed);
         }
+        return false;
     }
 
-    private static void establishConnections() throws IOException {
+    private void establishConnections() throws IOException {
         List<PeerInfo> seeds = loadSeeds();
         Set<PeerInfo> peerSet = new HashSet<>();
         for (PeerInfo seed : seeds) {
             peerSet.addAll(getPeersFromSeed(seed));
         }
 
+        knownPeers.addAll(peerSet);
         List<PeerInfo> peerList = new ArrayList<>(peerSet);
         Collections.shuffle(peerList);
 
@@ -273,7 +664,7 @@ public class PeerNode {
     }
 
 
-    private static void connectToPeer(PeerInfo peer1, PeerInfo peer2) {
+    private void connectToPeer(PeerInfo peer1, PeerInfo peer2) {
         String peerKey = peer2.ip + ":" + peer2.port;
 
         // Avoid reconnecting to the same peer
@@ -282,9 +673,11 @@ public class PeerNode {
             return;
         }
 
-        try (Socket socket = new Socket(peer2.ip, peer2.port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peer2.ip, peer2.port), PING_TIMEOUT);
+            socket.setSoTimeout(PING_TIMEOUT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             out.println("connect:" + peer1.ip + ":" + peer1.port);
 
@@ -292,6 +685,7 @@ public class PeerNode {
             String response = in.readLine();
             if ("ack".equalsIgnoreCase(response)) {
                 connectedPeers.put(peerKey, peer2);
+                neighboursChanged();
                 logMessage("Successfully connected to peer: " + peerKey);
             } else {
                 logMessage("Peer " + peerKey + " did not acknowledge connection.");
@@ -304,11 +698,14 @@ public class PeerNode {
     }
 
 
-    private static List<PeerInfo> getPeersFromSeed(PeerInfo seed) throws IOException {
+    private List<PeerInfo> getPeersFromSeed(PeerInfo seed) throws IOException {
         List<PeerInfo> peerList = new ArrayList<>();
-        try (Socket socket = new Socket(seed.ip, seed.port);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+        try (Socket socket = new Socket()) {
+            // Also called from the shared workers, so a stalled seed must not hold one for long
+            socket.connect(new InetSocketAddress(seed.ip, seed.port), PING_TIMEOUT);
+            socket.setSoTimeout(PING_TIMEOUT);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
 
             JSONObject request = new JSONObject();
             request.put("type", "get_peers");
@@ -316,7 +713,6 @@ public class PeerNode {
 
 
             String response = in.readLine();
-            System.out.println("Received response -> " + response); // Check what's received
 
             if (response == null || response.trim().isEmpty()) {
                 throw new IOException("Empty response from SeedNode");
@@ -333,7 +729,7 @@ public class PeerNode {
                     peerList.add(new PeerInfo(ip, port));
                 }
             }
-            logMessage("Retrieved peers from seed " + seed.ip + ":" + seed.port + ": " + response);
+            logMessage("Retrieved " + peerList.size() + " peers from seed " + seed.ip + ":" + seed.port);
 
         } catch (JSONException e) {
             System.err.println("JSON error: " + e.getMessage());
@@ -345,145 +741,1054 @@ public class PeerNode {
         return peerList;
     }
 
-    private static void gossipMessage() {
-        while (true) {
+    /**
+     * Gossips an application payload to every peer subscribed to the topic. Payloads up to
+     * INLINE_LIMIT travel inline; larger ones are chunked and pulled by the peers that want them.
+     */
+    public void publish(String topic, byte[] data) {
+        if (!PubSub.isValidTopic(topic)) {
+            throw new IllegalArgumentException("Invalid topic: " + topic);
+        }
+        long timestamp = System.currentTimeMillis();
+        String header = timestamp + ":" + peerIp + ":" + peerPort + ":" + UUID.randomUUID();
+        boolean chunked = data.length > INLINE_LIMIT;
+        String body = chunked ? chunks.split(data).encode() : Base64.getEncoder().encodeToString(data);
+        byte[] frame = ("gossip:" + PubSub.encode(header, chunked, topic, body) + "\n").getBytes(StandardCharsets.UTF_8);
+        int start = GOSSIP_PREFIX.length;
+        int end = frame.length - 1;
+        long messageId = MessageIds.of(frame, start, end - start);
+
+        if (messageList.add(messageId)) {
+            storeMessage(messageId, timestamp, frame, start, end);
+            pubsub.deliver(topic, ByteBuffer.wrap(data));
+            if (config.plumtree) plumtree.delivered(messageId, null, connectedPeers.values());
+            relay(frame, 0, frame.length, null, topic);
+        }
+    }
+
+    /**
+     * Starts delivering the topic's messages to the handler and tells the neighbours, so the
+     * topic is relayed towards this peer.
+     */
+    public void subscribe(String topic, MessageHandler handler) {
+        if (!PubSub.isValidTopic(topic)) {
+            throw new IllegalArgumentException("Invalid topic: " + topic);
+        }
+        pubsub.subscribe(topic, handler);
+        advertiseTopics();
+    }
+
+    public void unsubscribe(String topic, MessageHandler handler) {
+        if (pubsub.unsubscribe(topic, handler)) {
+            advertiseTopics();
+        }
+    }
+
+    private void gossipMessage() {
+        UUID messageUUID = UUID.randomUUID();
+        long timestamp = System.currentTimeMillis();
+        String message = timestamp + ":" + peerIp + ":" + peerPort + ":" + messageUUID.toString();
+        byte[] frame = ("gossip:" + message + "\n").getBytes(StandardCharsets.UTF_8);
+        int start = GOSSIP_PREFIX.length;
+        int end = frame.length - 1;
+        long messageId = MessageIds.of(frame, start, end - start);
+
+        if (messageList.add(messageId)) {
+            storeMessage(messageId, timestamp, frame, start, end);
+            if (config.plumtree) plumtree.delivered(messageId, null, connectedPeers.values());
+            relay(frame, 0, frame.length, null);
+        }
+    }
+
+    private void relay(byte[] data, int start, int end, PeerInfo sender) {
+        relay(data, start, end, sender, null);
+    }
+
+    // Copies the frame into a pooled buffer and queues it on the gossip lane, or sheds it when saturated
+    private void relay(byte[] data, int start, int end, PeerInfo sender, String topic) {
+        if (!running) return; // Frames still on the data lane after stop() are not relayed
+        TrafficScheduler.OutboundFrame frame = acquireFrame();
+        if (frame == null) return;
+        frame.set(data, start, end - start);
+        frame.sender = frameSender;
+        frame.exclude = sender;
+        frame.topic = topic;
+        outbound.submitData(frame);
+    }
+
+    // Sends to a random subset of neighbours sized by the current fanout, within each neighbour's budget.
+    // In Plumtree mode the frame goes to every eager neighbour instead, since the tree has no spare links.
+    // Application messages only go to neighbours that advertised their topic.
+    private void sendGossipFrame(TrafficScheduler.OutboundFrame frame) {
+        try {
+            sendToNeighbours(frame);
+        } finally {
+            frameSent();
+        }
+    }
+
+    private void sendToNeighbours(TrafficScheduler.OutboundFrame frame) {
+        if (!running) return; // Queued before stop(); the links are closed
+        frame.neighbours = this.neighbours;
+        try {
+            FloodRelay.relay(relayTargets, frame, config.plumtree ? 0 : rateController.relayFanout(), ThreadLocalRandom.current());
+        } finally {
+            frame.neighbours = null;
+        }
+    }
+
+    /**
+     * Writes a whole frame to the peer's persistent gossip link, opening it on first use. The frame
+     * is written from {@code start} to the buffer's limit; the buffer's position is not restored.
+     * The write never blocks: a neighbour that stops reading loses its link instead of a worker.
+     * A stopped peer drops the frame rather than open a link.
+     */
+    private void sendFrame(PeerInfo peer, ByteBuffer frame, int start) {
+        if (!running) return;
+        boolean failed = false;
+        OutboundLink link = peer.link;
+        try {
+            if (link == null || link.isClosed()) {
+                synchronized (peer) {
+                    link = peer.link;
+                    if (link == null || link.isClosed()) {
+                        peer.link = link = openLink(peer);
+                        // stop() clears running before closing links, so it either sees this link or we see it stopped
+                        if (!running) {
+                            link.close();
+                            return;
+                        }
+                    }
+                }
+            }
+            frame.position(start);
+            link.send(frame);
+        } catch (IOException e) {
+            System.out.println("Failed to send message to " + peer.ip);
+            failed = true;
+            if (link != null) link.close();
+        }
+        if (peer.missedPings == 0) rateController.recordSend(failed); // Not while a ping is out or missed; failing links are not congestion
+    }
+
+    // Control lines go on their own link, so they never queue behind gossip for a slow neighbour
+    private void sendLinkLine(PeerInfo peer, String line) {
+        ByteBuffer frame = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        outbound.submitControl(() -> {
+            if (!running) return;
+            OutboundLink link = peer.controlLink;
             try {
-                UUID messageUUID = UUID.randomUUID();
-                String message = System.currentTimeMillis() + ":" + peerIp + ":" + messageUUID.toString();
-                //int messageHash = messageUUID.hashCode();
-                UUID uuid = UUID.nameUUIDFromBytes(message.getBytes(StandardCharsets.UTF_8));
-                int messageHash = uuid.hashCode();
-
-                if (!messageList.contains(messageHash)) {
-                    messageList.add(messageHash);
-                    for (PeerInfo peer : connectedPeers.values()) {
-                        sendMessage(peer.ip, peer.port, message);
+                if (link == null || link.isClosed()) {
+                    synchronized (peer.controlLock) {
+                        link = peer.controlLink;
+                        if (link == null || link.isClosed()) {
+                            peer.controlLink = link = openLink(peer);
+                            if (!running) { // As in sendFrame
+                                link.close();
+                                return;
+                            }
+                        }
                     }
                 }
-                Thread.sleep(MESSAGE_INTERVAL);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                link.send(frame);
+            } catch (IOException e) {
+                System.out.println("Failed to send control message to " + peer.ip);
+                if (link != null) link.close();
             }
+        });
+    }
+
+    // Starts connecting on the event loop; the hello tells the receiver which neighbour the link
+    // belongs to. A link that has not connected or drained within PING_TIMEOUT is dropped.
+    private OutboundLink openLink(PeerInfo peer) throws IOException {
+        ByteBuffer hello = ByteBuffer.wrap(("link:" + peerIp + ":" + peerPort + "\n").getBytes(StandardCharsets.UTF_8));
+        return OutboundLink.open(new InetSocketAddress(peer.ip, peer.port), hello, runtime.eventLoop(),
+                runtime.bufferPool(), MAX_LINK_BACKLOG, PING_TIMEOUT);
+    }
+
+    // Queues a line for one neighbour on the gossip lane, shed like gossip when the lane is saturated
+    private void sendLinkData(PeerInfo peer, String line) {
+        if (!running) return;
+        TrafficScheduler.OutboundFrame frame = acquireFrame();
+        if (frame == null) return;
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        frame.set(bytes, 0, bytes.length);
+        frame.sender = directSender;
+        frame.target = peer;
+        outbound.submitData(frame);
+    }
+
+    private void sendDirectFrame(TrafficScheduler.OutboundFrame frame) {
+        try {
+            sendFrame(frame.target, frame.buffer(), 0);
+        } finally {
+            frameSent();
         }
     }
 
-    private static void sendMessage(String ip, int port, String message) {
-        try (Socket socket = new Socket(ip, port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            out.println("gossip:" + message);
-        } catch (IOException e) {
-            System.out.println("Failed to send message to " + ip);
+    // Copies the neighbours for the relay path, which iterates them for every frame. Serialized so
+    // a slow copy cannot overwrite a newer one.
+    private void neighboursChanged() {
+        synchronized (neighboursLock) {
+            neighbours = connectedPeers.values().toArray(new PeerInfo[0]);
         }
     }
 
+    // Takes a frame from the shared gossip lane, counting it against this node's backlog or shed frames
+    private TrafficScheduler.OutboundFrame acquireFrame() {
+        TrafficScheduler.OutboundFrame frame = outbound.acquireFrame();
+        if (frame == null) {
+            rateController.recordShed();
+        } else if (rateController.frameQueued()) {
+            outbound.senderActive(); // This node now has a claim on its share of the lane
+        }
+        return frame;
+    }
 
-    private static void receiveMessages() {
-        try (ServerSocket serverSocket = new ServerSocket(peerPort)) {
-            while (true) {
-                Socket socket = serverSocket.accept();
-                new Thread(() -> handlePeer(socket)).start();
+    private void frameSent() {
+        if (rateController.frameSent()) outbound.senderIdle();
+    }
+
+    // Closes both links before taking the locks that guard opening them, so the ping job never waits on a sender
+    private void closeLink(PeerInfo peer) {
+        OutboundLink link = peer.link;
+        OutboundLink controlLink = peer.controlLink;
+        if (link != null) link.close();
+        if (controlLink != null) controlLink.close();
+        synchronized (peer) {
+            if (peer.link == link) peer.link = null;
+        }
+        synchronized (peer.controlLock) {
+            if (peer.controlLink == controlLink) peer.controlLink = null;
+        }
+    }
+
+
+    // Runs on the event loop: takes every pending connection and starts reading its first frame
+    private void acceptPeers(SelectionKey key) {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                inbound.add(channel);
+                runtime.eventLoop().register(channel, SelectionKey.OP_READ, new InboundConnection(channel));
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Failed to accept connection: " + e.getMessage());
         }
     }
 
-    private static void handlePeer(Socket socket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-            String data = in.readLine();
-            if (data == null) return;
+    /**
+     * One inbound connection on the shared event loop. Its first frame decides what it is. Control
+     * requests and chunk pulls are handed to worker threads, since they answer with blocking
+     * writes. A gossip link stays on the loop, which splits it into frames and drops duplicates
+     * straight from the reader's buffer; the remaining frames are copied into pooled buffers and
+     * processed in order on the data lane. A link with {@code MAX_PENDING_FRAMES} waiting stops
+     * being read until the data lane catches up, so the sender feels the back-pressure.
+     */
+    private class InboundConnection extends DataLane.Task implements EventLoop.Handler {
+        private final SocketChannel channel;
+        private final FrameReader reader;
+        private final String remoteIp;
+        private final byte[] remoteIpBytes;
+        private final Runnable resumeReading = this::resumeReading;
+        private PeerInfo sender; // Neighbour named in the link hello, null for a bare gossip connection
+        private boolean link;
+        private SelectionKey key;
+        // Ring of frames waiting for the data lane and their message IDs, 0 for non-gossip frames; guarded by this
+        private ByteBuffer[] frames = new ByteBuffer[16];
+        private long[] frameIds = new long[16];
+        private int firstFrame;
+        private int frameCount;
+        private boolean scheduled; // Queued on or running on the data lane, guarded by this
+        private boolean paused; // Reading stopped for back-pressure, guarded by this
+
+        InboundConnection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.reader = new FrameReader(channel);
+            this.remoteIp = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            this.remoteIpBytes = remoteIp.getBytes(StandardCharsets.US_ASCII);
+        }
 
-            String[] parts = data.split(":");
-            if (parts[0].equals("gossip")) {
-                String message = data.substring(parts[0].length() + 1);
-                UUID messageUUID = UUID.nameUUIDFromBytes(message.getBytes(StandardCharsets.UTF_8));  // Create UUID from message content.
+        @Override
+        public void ready(SelectionKey key) {
+            this.key = key;
+            try {
+                while (reader.next()) {
+                    if (!link) {
+                        if (!classify(key)) return; // Handed to a worker or refused
+                        if (!reader.startsWith(GOSSIP_PREFIX)) continue; // The hello carries no gossip
+                    }
+                    acceptFrame();
+                }
+                if (reader.isEnded()) close(key);
+            } catch (IOException | RuntimeException e) {
+                if (link) System.out.println("Gossip link closed: " + e.getMessage());
+                close(key);
+            }
+        }
 
-                if (!messageList.contains(messageUUID.hashCode())) { // Use UUID's hashcode.  Still not perfect, but better than message.hashcode directly
-                    messageList.add(messageUUID.hashCode());//messageHash);
+        // Returns true if the connection is a gossip link and stays on the loop
+        private boolean classify(SelectionKey key) {
+            boolean gossip = reader.startsWith(GOSSIP_PREFIX);
+            String[] parts = gossip ? null : reader.frame().split(":");
+            if (gossip || (parts[0].equals("link") && parts.length == 3)) {
+                if (inboundLinks.incrementAndGet() > MAX_GOSSIP_LINKS) {
+                    inboundLinks.decrementAndGet();
+                    logMessage("Too many gossip links, refusing link from " + remoteIp);
+                    close(key);
+                    return false;
+                }
+                link = true;
+                sender = gossip ? null : connectedPeers.get(parts[1] + ":" + parts[2]);
+                return true;
+            }
 
-                    // Log the received gossip message, including timestamp and sender IP
-                    String logMessage = String.format("Received gossip at %d from %s: %s", System.currentTimeMillis(), socket.getInetAddress().getHostAddress(), message);
-                    logMessage(logMessage);
-                    for (PeerInfo peer : connectedPeers.values()) {
-                        sendMessage(peer.ip, peer.port, message);
+            inbound.remove(channel);
+            if (parts[0].equals("chunk")) {
+                // Chunk pulls move large payloads, so they are served on the upload threads
+                runtime.eventLoop().handOff(key, runtime.uploads(), () -> serveChunks(channel, reader, remoteIp));
+            } else {
+                // Replays stream whole store segments, so they stay off the threads reserved for pings
+                ExecutorService lane = parts[0].equals("replay") ? runtime.uploads() : runtime.controlLane();
+                runtime.eventLoop().handOff(key, lane, () -> {
+                    try (channel) {
+                        handleControl(channel, parts, remoteIp);
+                    } catch (IOException | NumberFormatException e) {
+                        e.printStackTrace();
                     }
+                });
+            }
+            return false;
+        }
+
+        // Runs on the loop: drops a duplicate in place, otherwise queues a pooled copy of the frame
+        private void acceptFrame() {
+            long messageId = 0;
+            if (reader.startsWith(GOSSIP_PREFIX)) {
+                int start = reader.start() + GOSSIP_PREFIX.length;
+                messageId = MessageIds.of(reader.array(), start, reader.end() - start);
+                if (!messageList.add(messageId)) {
+                    receiveDuplicate(messageId, sender);
+                    return;
+                }
+            }
+            queueFrame(reader.copyFrame(runtime.bufferPool()), messageId);
+        }
+
+        private void queueFrame(ByteBuffer frame, long messageId) {
+            boolean submit;
+            synchronized (this) {
+                if (frameCount == frames.length) growFrames();
+                int slot = (firstFrame + frameCount) % frames.length;
+                frames[slot] = frame;
+                frameIds[slot] = messageId;
+                frameCount++;
+                submit = !scheduled;
+                scheduled = true;
+                if (!paused && frameCount >= MAX_PENDING_FRAMES) {
+                    paused = true;
+                    key.interestOps(0);
+                }
+            }
+            if (submit) {
+                try {
+                    runtime.dataLane().execute(this);
+                } catch (RejectedExecutionException e) {
+                    close(key); // Runtime is shutting down
                 }
-            } else if (parts[0].equals("ping")) {
-                // Respond to ping message
-                try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-                    out.println("pong");
-                    // Reset missed pings AFTER sending pong
-                    String peerIp = socket.getInetAddress().getHostAddress();  // Extract IP from socket
-                    PeerInfo peer = connectedPeers.get(peerIp);
-                    if (peer != null) {
-                        peer.missedPings = 0;
+            }
+        }
+
+        private void growFrames() {
+            ByteBuffer[] largerFrames = new ByteBuffer[frames.length * 2];
+            long[] largerIds = new long[frames.length * 2];
+            for (int i = 0; i < frameCount; i++) {
+                int slot = (firstFrame + i) % frames.length;
+                largerFrames[i] = frames[slot];
+                largerIds[i] = frameIds[slot];
+            }
+            frames = largerFrames;
+            frameIds = largerIds;
+            firstFrame = 0;
+        }
+
+        // Runs on the data lane: processes queued frames in arrival order until none are left
+        @Override
+        public void run() {
+            while (true) {
+                ByteBuffer frame;
+                long messageId;
+                boolean resume = false;
+                synchronized (this) {
+                    if (frameCount == 0) {
+                        scheduled = false;
+                        return;
                     }
+                    frame = frames[firstFrame];
+                    messageId = frameIds[firstFrame];
+                    frames[firstFrame] = null;
+                    firstFrame = (firstFrame + 1) % frames.length;
+                    frameCount--;
+                    if (paused && frameCount <= MAX_PENDING_FRAMES / 2) {
+                        paused = false;
+                        resume = true;
+                    }
+                }
+                if (resume) runtime.eventLoop().execute(resumeReading);
+                try {
+                    readLinkFrame(frame.array(), frame.limit(), messageId);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    runtime.bufferPool().release(frame);
+                }
+            }
+        }
 
+        // Runs on the loop
+        private void resumeReading() {
+            if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+        }
+
+        // The frame is data[0, length) and ends in '\n'
+        private void readLinkFrame(byte[] data, int length, long messageId) {
+            if (startsWith(data, length, GOSSIP_PREFIX)) {
+                receiveGossip(data, length, messageId, remoteIpBytes, sender);
+            } else if (sender != null && startsWith(data, length, TOPICS_PREFIX)) {
+                if (pubsub.onAdvertisement(sender, lineOf(data, length))) {
+                    advertiseTopics(); // Pass new interest on towards publishers
                 }
+            } else if (config.plumtree && sender != null) {
+                handleTreeControl(lineOf(data, length), sender);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            EventLoop.closeQuietly(channel);
+            if (inbound.remove(channel) && link) inboundLinks.decrementAndGet();
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix) {
+        if (length <= prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    // The frame as a string, without its terminating '\n'
+    private static String lineOf(byte[] data, int length) {
+        return new String(data, 0, length - 1, StandardCharsets.UTF_8);
     }
 
-    private static void pingPeers() {
-        while (true) {
+    private void handleControl(SocketChannel channel, String[] parts, String remoteIp) throws IOException {
+        if (parts[0].equals("ping")) {
+            // Respond to ping message, reporting our degree for neighbour selection
+            writeLine(channel, "pong:" + connectedPeers.size());
+            // Reset missed pings AFTER sending pong
+            PeerInfo peer = connectedPeers.get(remoteIp);
+            if (peer != null) {
+                peer.missedPings = 0;
+            }
+        } else if (parts[0].equals("connect") && parts.length == 3) {
+            // Accept the handshake and keep the initiator as a neighbour
+            PeerInfo peer = new PeerInfo(parts[1], Integer.parseInt(parts[2].trim()));
+            String peerKey = peer.ip + ":" + peer.port;
+            if (!(peer.ip.equals(peerIp) && peer.port == peerPort) && connectedPeers.putIfAbsent(peerKey, peer) == null) {
+                neighboursChanged();
+                logMessage("Accepted connection from peer: " + peerKey);
+            }
+            writeLine(channel, "ack");
+        } else if (parts[0].equals("disconnect") && parts.length == 3) {
+            // The neighbour rewired away from us
+            PeerInfo peer = connectedPeers.remove(parts[1] + ":" + parts[2].trim());
+            if (peer != null) {
+                neighboursChanged();
+                closeLink(peer);
+                plumtree.neighbourDown(peer);
+                pubsub.neighbourDown(peer);
+                logMessage("Peer " + peer + " disconnected.");
+            }
+            writeLine(channel, "ack");
+        } else if (parts[0].equals("replay") && parts.length == 2) {
+            // Stream stored gossip to a late joiner straight from the segment files
+            GossipStore store = gossipStore;
+            if (store == null) return; // Nothing stored, the requester sees an empty replay
+            long since = Long.parseLong(parts[1].trim());
+            if (!replayLimits.tryAcquire(remoteIp)) {
+                logMessage("Too many replays to " + remoteIp + ", refusing another");
+                return;
+            }
+            ChannelDeadlines.Deadline deadline = runtime.deadlines().watch(channel);
             try {
-                Thread.sleep(PING_INTERVAL);
-                List<String> deadPeers = new ArrayList<>(); // Collect dead peers to avoid ConcurrentModificationException
-                for (Map.Entry<String, PeerInfo> entry : connectedPeers.entrySet()) {
-                    PeerInfo peer = entry.getValue();
-                    if (peer.missedPings >= MAX_MISSED_PINGS) {
-                        System.out.println("Peer " + peer.ip + " is dead!");
-                        deadPeers.add(peer.ip); // Collect dead peer IPs
+                long bytes = store.replaySince(since, channel, () -> deadline.arm(REPLAY_TIMEOUT));
+                logMessage("Replayed " + bytes + " bytes of gossip since " + since + " to " + remoteIp);
+            } catch (IOException e) {
+                if (!deadline.expired()) throw e;
+                logMessage("Abandoned replay to " + remoteIp + ", it stopped reading");
+            } finally {
+                deadline.close();
+                replayLimits.release(remoteIp);
+            }
+        }
+    }
 
-                        // Notify seeds about the dead node
-                        reportDeadNodeToSeeds(peer);
+    private void writeLine(SocketChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
 
-                    } else {
-                        sendPing(peer);
-                    }
+    private void serveChunks(SocketChannel channel, FrameReader reader, String requester) {
+        try (channel) {
+            chunks.serve(channel, reader, requester);
+        } catch (IOException e) {
+            System.out.println("Chunk request failed: " + e.getMessage());
+        }
+    }
+
+    // Runs on the event loop for a frame already in the dedup window, straight from the reader's buffer
+    private void receiveDuplicate(long messageId, PeerInfo sender) {
+        rateController.recordReceived(true);
+        if (config.plumtree) plumtree.duplicate(sender);
+        if (chunks.hasActive()) chunks.addHolder(messageId, sender); // It has the chunks of a manifest we are pulling
+    }
+
+    // Steady-state receive path, on the data lane: stores, logs and relays a new frame the loop has already deduplicated.
+    // The frame is data[0, length) and ends in '\n'.
+    private void receiveGossip(byte[] data, int length, long messageId, byte[] senderIp, PeerInfo sender) {
+        int start = GOSSIP_PREFIX.length;
+        int end = length - 1;
+        rateController.recordReceived(false);
+        if (config.plumtree) plumtree.delivered(messageId, sender, connectedPeers.values());
+
+        long now = System.currentTimeMillis();
+        storeMessage(messageId, MessageIds.originTimestamp(data, start, end, now), data, start, end);
+        PubSub.Message message = PubSub.parse(data, start, end);
+        if (message == null) {
+            // Log the received gossip message, including timestamp and sender IP
+            logReceivedGossip(now, senderIp, data, start, end);
+        }
+
+        // A single origin flooding the overlay only gets its share of relays
+        if (!originBucket(data, start, end).tryAcquire()) return;
+        if (message == null) {
+            relay(data, 0, length, sender);
+        } else {
+            receiveApplicationMessage(messageId, message, data, 0, length, sender, true);
+        }
+    }
+
+    /**
+     * Delivers an application message to local subscribers and relays it towards the neighbours
+     * that want its topic. A chunked message is only relayed once its chunks have been pulled, so
+     * the next hop can pull them from here.
+     */
+    private void receiveApplicationMessage(long messageId, PubSub.Message message, byte[] data,
+                                                  int frameStart, int frameEnd, PeerInfo sender, boolean forward) {
+        if (!pubsub.interested(message.topic)) return;
+        String body = new String(data, message.bodyStart, message.bodyEnd - message.bodyStart, StandardCharsets.US_ASCII);
+        if (!message.chunked) {
+            logMessage(String.format("Received %s message %016x at %d from %s", message.topic, messageId, System.currentTimeMillis(), sender));
+            if (pubsub.isSubscribed(message.topic)) {
+                try {
+                    pubsub.deliver(message.topic, ByteBuffer.wrap(Base64.getDecoder().decode(body)));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Malformed payload in " + message.topic + " message from " + sender);
                 }
+            }
+            if (forward) relay(data, frameStart, frameEnd, sender, message.topic);
+            return;
+        }
+
+        ChunkTransfer.Manifest manifest;
+        try {
+            manifest = ChunkTransfer.Manifest.parse(body);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Malformed manifest in " + message.topic + " message from " + sender + ": " + e.getMessage());
+            return;
+        }
+        if (sender == null) return; // Nobody to pull from
+        byte[] frame = forward ? Arrays.copyOfRange(data, frameStart, frameEnd) : null;
+        chunks.fetch(messageId, manifest, sender, payload -> {
+            logMessage(String.format("Received %s message %016x (%d bytes in %d chunks) at %d from %s", message.topic,
+                    messageId, manifest.length, manifest.hashes.length, System.currentTimeMillis(), sender));
+            pubsub.deliver(message.topic, payload);
+            if (frame != null) relay(frame, 0, frame.length, sender, message.topic);
+        });
+    }
 
-                // Remove dead peers after iteration to avoid ConcurrentModificationException
-                for (String deadPeerIp : deadPeers) {
-                    connectedPeers.remove(deadPeerIp);
+    // Tells every neighbour which topics to relay to us
+    private void advertiseTopics() {
+        for (PeerInfo peer : connectedPeers.values()) {
+            sendLinkLine(peer, pubsub.advertisement(peer));
+        }
+    }
 
+    private void handleTreeControl(String data, PeerInfo sender) {
+        String[] parts = data.split(":");
+        try {
+            if (parts[0].equals("ihave") && parts.length == 2) {
+                for (String id : parts[1].split(",")) {
+                    long messageId = Long.parseUnsignedLong(id, 16);
+                    plumtree.onIHave(messageId, sender, messageList.contains(messageId));
                 }
+            } else if (parts[0].equals("graft") && parts.length == 2) {
+                plumtree.onGraft(Long.parseUnsignedLong(parts[1], 16), sender);
+            } else if (parts[0].equals("prune")) {
+                plumtree.onPrune(sender);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Malformed tree message from " + sender + ": " + data);
+        }
+    }
 
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    private void repairTree() {
+        treeLinks.flushIHaves();
+        plumtree.tick();
+    }
+
+    // Picks the bucket for the origin, the <ip>:<port> fields of <timestamp>:<ip>:<port>:<uuid>.
+    // Peers often share an IP, so the port is needed to tell them apart.
+    private TokenBucket originBucket(byte[] data, int start, int end) {
+        int hash = 0;
+        int i = start;
+        while (i < end && data[i] != ':') i++;
+        int colons = 0;
+        for (i++; i < end; i++) {
+            if (data[i] == ':' && ++colons == 2) break;
+            hash = 31 * hash + data[i];
+        }
+        hash ^= hash >>> 16; // Ports differ in the low digits only, so mix them into every bit
+        int index = (hash & 0x7FFFFFFF) % ORIGIN_BUCKETS;
+        TokenBucket bucket = originBuckets[index];
+        if (bucket == null) {
+            // Racing receivers may each create one; the spare only costs a burst of extra relays
+            bucket = new TokenBucket(ORIGIN_RATE, ORIGIN_BURST);
+            originBuckets[index] = bucket;
+        }
+        return bucket;
+    }
+
+    private void adjustRates() {
+        if (rateController.adjust(outbound.dataShare(), connectedPeers.size())) {
+            logMessage("Adjusted gossip rate: " + rateController);
+        }
+    }
+
+    private void storeMessage(long messageId, long originTimestamp, byte[] data, int start, int end) {
+        GossipStore store = gossipStore;
+        if (store == null) {
+            if (config.plumtree) cacheTreePayload(messageId, data, start, end);
+            return;
+        }
+        try {
+            store.append(messageId, originTimestamp, data, start, end - start);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to store gossip message: " + e.getMessage());
+        }
+    }
+
+    // Without a store, grafts are answered from the most recent payloads kept in memory
+    private void cacheTreePayload(long messageId, byte[] data, int start, int end) {
+        byte[] payload = Arrays.copyOfRange(data, start, end);
+        synchronized (treePayloads) {
+            treePayloads.put(messageId, payload);
+            if (treePayloads.size() > TREE_PAYLOAD_CACHE) {
+                treePayloads.remove(treePayloads.keySet().iterator().next());
             }
         }
     }
 
-    private static void sendPing(PeerInfo peer) {
-        try (Socket socket = new Socket(peer.ip, peer.port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+    private byte[] cachedTreePayload(long messageId) {
+        synchronized (treePayloads) {
+            return treePayloads.get(messageId);
+        }
+    }
+
+    // Catch up on recent gossip from a single neighbour instead of waiting for re-floods.
+    // Runs on the download threads, so start() does not wait for it.
+    private void requestReplay(long since) {
+        List<PeerInfo> neighbours = new ArrayList<>(connectedPeers.values());
+        if (neighbours.isEmpty()) return;
+        PeerInfo peer = neighbours.get(random.nextInt(neighbours.size()));
+        runtime.downloads().execute(() -> replayFrom(peer, since));
+    }
+
+    private void replayFrom(PeerInfo peer, long since) {
+        if (!running) return;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peer.ip, peer.port), PING_TIMEOUT);
+            socket.setSoTimeout(REPLAY_TIMEOUT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("replay:" + since);
+
+            int replayed = GossipStore.readReplay(socket.getInputStream(), since, (messageId, originTimestamp, payload) -> {
+                if (messageList.add(messageId)) {
+                    storeMessage(messageId, originTimestamp, payload, 0, payload.length);
+                    PubSub.Message application = PubSub.parse(payload, 0, payload.length);
+                    if (application != null) {
+                        receiveApplicationMessage(messageId, application, payload, 0, payload.length, peer, false);
+                        return;
+                    }
+                    String message = new String(payload, StandardCharsets.UTF_8);
+                    logMessage(String.format("Replayed gossip at %d from %s: %s", System.currentTimeMillis(), peer.ip, message));
+                }
+            });
+            logMessage("Replayed " + replayed + " gossip messages from peer " + peer);
+        } catch (IOException e) {
+            System.out.println("Failed to replay gossip from peer " + peer);
+        }
+    }
+
+    private void maintainStore() {
+        GossipStore store = gossipStore;
+        if (store == null) return;
+        store.enforceRetention();
+        store.flush();
+    }
+
+    private void pingPeers() {
+        failureDetector.round(pingTargets, this.neighbours);
+    }
+
+    private void sendPing(PeerInfo peer) {
+        long sentAt = System.currentTimeMillis();
+        if (probe(peer) && failureDetector.answered(sentAt, System.currentTimeMillis())) {
+            peer.missedPings = 0; // Reset missed pings on successful ping response
+        } else {
+            System.out.println("Failed to ping peer " + peer.ip + ", " + peer.missedPings + " missed.");
+        }
+    }
+
+    // Drops a neighbour the failure detector gave up on and reports it to the seeds
+    private void neighbourDead(PeerInfo peer) {
+        System.out.println("Peer " + peer.ip + " is dead!");
+        outbound.submitControl(() -> reportDeadNodeToSeeds(peer));
+        if (connectedPeers.remove(peer.ip + ":" + peer.port, peer)) {
+            neighboursChanged();
+            closeLink(peer);
+            plumtree.neighbourDown(peer);
+            pubsub.neighbourDown(peer);
+            knownPeers.remove(peer);
+        }
+    }
+
+    // Pings the peer, recording the round trip time and the degree it reports in the pong
+    private boolean probe(PeerInfo peer) {
+        try (Socket socket = new Socket()) {
+            long started = System.nanoTime();
+            socket.connect(new InetSocketAddress(peer.ip, peer.port), PING_TIMEOUT);
+            socket.setSoTimeout(PING_TIMEOUT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             out.println("ping");
-            // peer.missedPings = 0; // Reset missed pings on successful ping response
+            String response = in.readLine();
+            if (response == null || !response.startsWith("pong")) return false;
+
+            peer.recordRtt((System.nanoTime() - started) / 1_000_000.0);
+            String[] parts = response.split(":");
+            if (parts.length == 2) {
+                peer.degree = Integer.parseInt(parts[1].trim());
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Swaps at most one high-latency neighbour for a closer candidate per step. A share of the
+     * neighbours are kept as random long links and never swapped, so the overlay stays connected
+     * and does not collapse into local clusters. The candidate is chosen to have a degree close to
+     * the neighbour it replaces, so the edge moves between peers of similar degree and the
+     * power-law degree distribution is kept. Candidates are probed in parallel on the download
+     * threads and the swap is finished there, so the shared workers only pick the neighbour.
+     */
+    private void rewireNeighbours() {
+        if (!rewiring.compareAndSet(false, true)) return; // The previous step is still probing
+        boolean probing = false;
+        try {
+            probing = startRewire();
+        } finally {
+            if (!probing) rewiring.set(false);
+        }
+    }
+
+    // Returns true if candidate probes were started; the last one to finish completes the step
+    private boolean startRewire() {
+        refreshKnownPeers();
+        List<PeerInfo> neighbours = new ArrayList<>(connectedPeers.values());
+        if (neighbours.size() < MIN_DEGREE) return false;
+
+        // Top up the long link quota with randomly chosen neighbours
+        Collections.shuffle(neighbours, random);
+        int longLinks = (int) neighbours.stream().filter(peer -> peer.longLink).count();
+        int longLinkQuota = (int) Math.ceil(LONG_LINK_FRACTION * neighbours.size());
+        for (PeerInfo peer : neighbours) {
+            if (longLinks >= longLinkQuota) break;
+            if (!peer.longLink) {
+                peer.longLink = true;
+                longLinks++;
+            }
+        }
+
+        PeerInfo worst = null;
+        for (PeerInfo peer : neighbours) {
+            if (peer.longLink || peer.rttMillis < 0 || peer.degree <= MIN_DEGREE) continue;
+            if (worst == null || peer.rttMillis > worst.rttMillis) worst = peer;
+        }
+        if (worst == null) return false;
+
+        List<PeerInfo> candidates = sampleCandidates();
+        if (candidates.isEmpty()) return false;
+        PeerInfo dropped = worst;
+        boolean[] answered = new boolean[candidates.size()];
+        AtomicInteger outstanding = new AtomicInteger(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            int index = i;
+            Runnable probeTask = () -> {
+                try {
+                    answered[index] = running && probe(candidates.get(index));
+                } finally {
+                    if (outstanding.decrementAndGet() == 0) finishRewire(dropped, candidates, answered);
+                }
+            };
+            try {
+                runtime.downloads().execute(probeTask);
+            } catch (RejectedExecutionException e) {
+                // Runtime is shutting down; count the probe as failed
+                if (outstanding.decrementAndGet() == 0) finishRewire(dropped, candidates, answered);
+            }
+        }
+        return true;
+    }
+
+    // Runs on a download thread once every candidate probe has finished
+    private void finishRewire(PeerInfo worst, List<PeerInfo> candidates, boolean[] answered) {
+        try {
+            if (running) replaceNeighbour(worst, candidates, answered);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            rewiring.set(false);
+        }
+    }
+
+    private void replaceNeighbour(PeerInfo worst, List<PeerInfo> candidates, boolean[] answered) {
+        PeerInfo replacement = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            PeerInfo candidate = candidates.get(i);
+            if (!answered[i] || candidate.degree >= MAX_DEGREE) continue;
+            if (candidate.rttMillis * REWIRE_GAIN >= worst.rttMillis) continue;
+            if (replacement == null) {
+                replacement = candidate;
+                continue;
+            }
+            int distance = Math.abs(candidate.degree - worst.degree);
+            int bestDistance = Math.abs(replacement.degree - worst.degree);
+            if (distance < bestDistance || (distance == bestDistance && candidate.rttMillis < replacement.rttMillis)) {
+                replacement = candidate;
+            }
+        }
+        if (replacement == null) return;
+
+        PeerInfo self = new PeerInfo(peerIp, peerPort);
+        connectToPeer(self, replacement);
+        if (!connectedPeers.containsKey(replacement.ip + ":" + replacement.port)) return;
+
+        PeerInfo dropped = worst;
+        connectedPeers.remove(dropped.ip + ":" + dropped.port);
+        neighboursChanged();
+        closeLink(dropped);
+        plumtree.neighbourDown(dropped);
+        pubsub.neighbourDown(dropped);
+        outbound.submitControl(() -> sendDisconnect(dropped));
+        logMessage(String.format("Rewired: replaced %s (%.1f ms) with %s (%.1f ms)",
+                dropped, dropped.rttMillis, replacement, replacement.rttMillis));
+    }
+
+    // Replaces the known peers with one random seed's current list, so peers that left are forgotten
+    private void refreshKnownPeers() {
+        try {
+            List<PeerInfo> seeds = loadSeeds();
+            if (seeds.isEmpty()) return;
+            List<PeerInfo> current = getPeersFromSeed(seeds.get(random.nextInt(seeds.size())));
+            if (current.isEmpty()) return; // Seed unreachable; a live seed always lists this peer
+            knownPeers.retainAll(new HashSet<>(current));
+            knownPeers.addAll(current);
         } catch (IOException e) {
-            System.out.println("Failed to ping peer " + peer.ip + ". Incrementing missed pings.");
-            peer.missedPings++;
+            System.out.println("Failed to refresh peer list: " + e.getMessage());
         }
     }
 
-    private static void reportDeadNodeToSeeds(PeerInfo deadPeer) throws IOException {
-        List<PeerInfo> seeds = loadSeeds();
+    private List<PeerInfo> sampleCandidates() {
+        List<PeerInfo> candidates = new ArrayList<>();
+        for (PeerInfo peer : knownPeers) {
+            boolean self = peer.ip.equals(peerIp) && peer.port == peerPort;
+            if (!self && !connectedPeers.containsKey(peer.ip + ":" + peer.port)) {
+                candidates.add(peer);
+            }
+        }
+        Collections.shuffle(candidates, random);
+        return candidates.subList(0, Math.min(REWIRE_CANDIDATES, candidates.size()));
+    }
+
+    private void sendDisconnect(PeerInfo peer) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peer.ip, peer.port), PING_TIMEOUT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("disconnect:" + peerIp + ":" + peerPort);
+        } catch (IOException e) {
+            System.out.println("Failed to send disconnect to peer " + peer);
+        }
+    }
+
+    private void reportDeadNodeToSeeds(PeerInfo deadPeer) {
+        List<PeerInfo> seeds;
+        try {
+            seeds = loadSeeds();
+        } catch (IOException e) {
+            System.out.println("Failed to load seeds to report dead peer " + deadPeer);
+            return;
+        }
         for (PeerInfo seed : seeds) {
             // Construct the "Dead Node" message as per assignment requirements
-            String deadNodeMessage = "Dead Node:" + deadPeer.ip + ":" + deadPeer.port + ":" + System.currentTimeMillis() + ":" + peerIp;
+            String deadNodeMessage = "Dead Node:" + deadPeer.ip + ":" + deadPeer.port + ":" + System.currentTimeMillis() + ":" + peerIp + ":" + peerPort;
             sendToSeed(seed, deadNodeMessage); // Reuse the sendToSeed method
             logMessage("Sent dead node message to seed " + seed.ip + ":" + seed.port + ": " + deadNodeMessage);
         }
     }
 
 
+    private void saveSnapshot() {
+        PeerSnapshot snapshot = new PeerSnapshot();
+        snapshot.savedAt = System.currentTimeMillis();
+        snapshot.ip = peerIp;
+        snapshot.port = peerPort;
+        for (PeerInfo peer : connectedPeers.values()) {
+            PeerSnapshot.Neighbour neighbour = new PeerSnapshot.Neighbour();
+            neighbour.ip = peer.ip;
+            neighbour.port = peer.port;
+            neighbour.missedPings = peer.missedPings;
+            neighbour.rttMillis = peer.rttMillis;
+            neighbour.degree = peer.degree;
+            neighbour.longLink = peer.longLink;
+            snapshot.neighbours.add(neighbour);
+        }
+        snapshot.seedFailures.putAll(seedFailures);
+        snapshot.seenMessageIds = messageList.toArray();
+        try {
+            snapshot.write(stateFile);
+        } catch (IOException e) {
+            System.err.println("Failed to write peer snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the dedup window and seed failure counts from the snapshot, then re-handshakes with
+     * every snapshotted neighbour in parallel on the shared workers. Returns the number of
+     * neighbours that answered in time; later answers still rejoin them in the background.
+     */
+    private int restoreFromSnapshot(PeerSnapshot snapshot) {
+        for (long messageId : snapshot.seenMessageIds) {
+            messageList.add(messageId);
+        }
+        seedFailures.putAll(snapshot.seedFailures);
+
+        PeerInfo self = new PeerInfo(peerIp, peerPort);
+        CountDownLatch handshakes = new CountDownLatch(snapshot.neighbours.size());
+        for (PeerSnapshot.Neighbour neighbour : snapshot.neighbours) {
+            PeerInfo peer = new PeerInfo(neighbour.ip, neighbour.port);
+            peer.missedPings = neighbour.missedPings;
+            peer.rttMillis = neighbour.rttMillis;
+            peer.degree = neighbour.degree;
+            peer.longLink = neighbour.longLink;
+            knownPeers.add(peer);
+            try {
+                runtime.workers().execute(() -> {
+                    try {
+                        connectToPeer(self, peer);
+                    } finally {
+                        handshakes.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                handshakes.countDown(); // Runtime is shutting down
+            }
+        }
+        try {
+            handshakes.await(PING_TIMEOUT * 2L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return connectedPeers.size();
+    }
+
+    private static boolean isPortAvailable(int port) {
+        try {
+            new ServerSocket(port).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The configured snapshot path with "{port}" expanded, so peers sharing a working directory
+     * never read each other's state.
+     */
+    private File stateFileFor(int port) {
+        return new File(config.stateFile.getPath().replace(PORT_TOKEN, String.valueOf(port)));
+    }
+
+    /**
+     * The snapshot to warm-restart from, or null to start cold. A peer on a fixed port reads its
+     * own file. A peer on a free port scans every file matching the "{port}" path and takes the
+     * newest one this host wrote for a port that is still free, so it comes back on that port
+     * instead of leaving the file behind. Expired files found on the way are deleted.
+     */
+    private PeerSnapshot findSnapshot() {
+        String name = config.stateFile.getName();
+        int token = name.indexOf(PORT_TOKEN);
+        if (config.port != 0 || token < 0) {
+            PeerSnapshot snapshot = PeerSnapshot.read(stateFileFor(config.port), SNAPSHOT_MAX_AGE);
+            if (snapshot != null && (!snapshot.ip.equals(peerIp) || (config.port != 0 && snapshot.port != config.port)
+                    || !isPortAvailable(snapshot.port))) {
+                System.out.println("Peer snapshot does not match this host or its port is taken, starting cold.");
+                return null;
+            }
+            return snapshot;
+        }
+
+        String prefix = name.substring(0, token);
+        String suffix = name.substring(token + PORT_TOKEN.length());
+        File directory = config.stateFile.getAbsoluteFile().getParentFile();
+        File[] files = directory.listFiles((dir, file) -> file.length() > prefix.length() + suffix.length()
+                && file.startsWith(prefix) && file.endsWith(suffix)
+                && file.substring(prefix.length(), file.length() - suffix.length()).chars().allMatch(Character::isDigit));
+        if (files == null) return null;
+
+        PeerSnapshot newest = null;
+        for (File file : files) {
+            PeerSnapshot snapshot = PeerSnapshot.read(file, SNAPSHOT_MAX_AGE);
+            if (snapshot == null) {
+                if (System.currentTimeMillis() - file.lastModified() > SNAPSHOT_MAX_AGE && !file.delete()) {
+                    System.out.println("Failed to delete expired peer snapshot " + file);
+                }
+                continue;
+            }
+            if (!file.getName().equals(prefix + snapshot.port + suffix) || !snapshot.ip.equals(peerIp)) continue;
+            if (newest != null && snapshot.savedAt <= newest.savedAt) continue;
+            if (isPortAvailable(snapshot.port)) newest = snapshot; // Taken ports belong to a running peer
+        }
+        return newest;
+    }
+
     private static int findAvailablePort() {
         for (int i = 0; i < 10; i++) {
-            int port = random.nextInt(1000) + 5001; // Use global random instance
+            int port = ThreadLocalRandom.current().nextInt(1000) + 5001;
             try (ServerSocket ss = new ServerSocket(port)) {
                 return port; // Successfully found an available port
             } catch (IOException e) {
@@ -495,7 +1800,7 @@ public class PeerNode {
     }
 
 
-    private static boolean isGraphConnected() {
+    private boolean isGraphConnected() {
         if (connectedPeers.isEmpty()) return false;
 
         Set<String> visited = new HashSet<>();
@@ -517,24 +1822,150 @@ public class PeerNode {
         return visited.size() == connectedPeers.size();
     }
 
-    public static void main(String[] args) {
+    /**
+     * Binds the peer's port, joins the overlay and starts its periodic jobs on the shared runtime.
+     * Returns once the peer is registered and connected; it then runs until {@link #stop()}.
+     */
+    public synchronized void start() throws IOException {
+        if (running) return;
+        long bootStarted = System.currentTimeMillis();
+        peerIp = config.ip != null ? config.ip : InetAddress.getLocalHost().getHostAddress();
+
+        // Reuse the previous identity if the snapshot is recent, was taken by this ip, and its port is still free
+        PeerSnapshot snapshot = config.stateFile == null ? null : findSnapshot();
+        peerPort = config.port != 0 ? config.port : snapshot != null ? snapshot.port : findAvailablePort();
+        if (peerPort == -1) {
+            throw new IOException("Could not start peer due to port issues.");
+        }
+
+        // Channel-backed sockets so replay requests can be served with FileChannel.transferTo
+        serverChannel = ServerSocketChannel.open();
         try {
-            peerIp = InetAddress.getLocalHost().getHostAddress();
+            serverChannel.bind(new InetSocketAddress(peerPort));
+        } catch (IOException e) {
+            if (config.port != 0 || snapshot == null) {
+                serverChannel.close();
+                throw e;
+            }
+            // Another peer took the snapshot's port since it was checked
+            System.out.println("Port " + peerPort + " from the peer snapshot was taken, starting cold.");
+            snapshot = null;
             peerPort = findAvailablePort();
-            if (peerPort == -1) {
-                System.err.println("Could not start peer due to port issues.");
-                return; // Exit if no port found
+            try {
+                if (peerPort == -1) throw new IOException("Could not start peer due to port issues.");
+                serverChannel.bind(new InetSocketAddress(peerPort));
+            } catch (IOException retry) {
+                serverChannel.close();
+                throw retry;
             }
+        }
+        stateFile = config.stateFile == null ? null : stateFileFor(peerPort);
+        if (config.storeDir != null) {
+            gossipStore = new GossipStore(new File(config.storeDir, String.valueOf(peerPort)), STORE_MAX_AGE, STORE_MAX_BYTES);
+        }
+        running = true;
+        runtime.eventLoop().register(serverChannel, SelectionKey.OP_ACCEPT, this::acceptPeers);
+
+        if (snapshot != null && restoreFromSnapshot(snapshot) > 0) {
+            // Warm restart: neighbours are back, so re-register in the background and only catch up on the gap
+            logMessage("Warm restart on port " + peerPort + " with " + connectedPeers.size() + " neighbours in "
+                    + (System.currentTimeMillis() - bootStarted) + " ms");
+            outbound.submitControl(() -> {
+                try {
+                    registerWithSeeds();
+                } catch (IOException e) {
+                    System.out.println("Failed to re-register with seeds: " + e.getMessage());
+                }
+            });
+            requestReplay(snapshot.savedAt - REPLAY_OVERLAP);
+        } else {
             registerWithSeeds();
             establishConnections();
+            requestReplay(System.currentTimeMillis() - STORE_MAX_AGE);
+        }
 
-            new Thread(PeerNode::gossipMessage).start();
-            new Thread(PeerNode::receiveMessages).start();
-            new Thread(PeerNode::pingPeers).start();
-            new Thread(PeerNode::sendHeartbeatToSeeds).start();
+        jobs.add(runtime.repeat(this::sendHeartbeatToSeeds, GossipRules.HEARTBEAT_INTERVAL));
+        if (config.originate) {
+            jobs.add(runtime.repeat(this::gossipMessage, rateController::originationInterval));
+        }
+        jobs.add(runtime.repeat(this::pingPeers, GossipRules.PING_INTERVAL));
+        if (gossipStore != null) {
+            jobs.add(runtime.repeat(this::maintainStore, STORE_MAINTENANCE_INTERVAL));
+        }
+        jobs.add(runtime.repeat(this::adjustRates, RATE_CONTROL_INTERVAL));
+        jobs.add(runtime.repeat(this::rewireNeighbours, REWIRE_INTERVAL));
+        if (stateFile != null) {
+            jobs.add(runtime.repeat(this::saveSnapshot, SNAPSHOT_INTERVAL));
+        }
+        jobs.add(runtime.repeat(this::advertiseTopics, TOPIC_ADVERTISE_INTERVAL));
+        if (config.plumtree) {
+            jobs.add(runtime.repeat(this::repairTree, TREE_REPAIR_INTERVAL));
+        }
+    }
+
+    /**
+     * Cancels the periodic jobs, closes every connection and the store, and saves a final snapshot.
+     * Neighbours notice the peer is gone through missed pings, as if the process had exited. A
+     * stopped peer can be started again; it reopens its store.
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        jobs.forEach(NodeRuntime.Periodic::cancel);
+        jobs.clear();
+        runtime.eventLoop().closeAndRelease(serverChannel); // Frees the port for a later start()
+        for (SocketChannel channel : inbound) {
+            EventLoop.closeQuietly(channel);
+        }
+        inbound.clear();
+        inboundLinks.set(0);
+        for (PeerInfo peer : connectedPeers.values()) {
+            closeLink(peer);
+        }
+        for (SeedConnection connection : seedConnections.values()) {
+            connection.abort();
+        }
+        if (stateFile != null) saveSnapshot();
+        GossipStore store = gossipStore;
+        gossipStore = null;
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close gossip store: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Stops the peer and releases its log file. */
+    @Override
+    public synchronized void close() {
+        stop();
+        synchronized (logLock) {
+            if (logOut != null) {
+                try {
+                    logOut.close();
+                } catch (IOException ignored) {
+                }
+                logOut = null;
+            }
+        }
+    }
+
+    public String ip() {
+        return peerIp;
+    }
 
+    public int port() {
+        return peerPort;
+    }
 
-            isGraphConnected();
+    public static void main(String[] args) {
+        try {
+            PeerNode node = new PeerNode(NodeRuntime.shared(), new Config());
+            node.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(node::stop));
+            node.isGraphConnected();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,132 @@
+package org.example;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+
+/**
+ * Compact binary snapshot of the state a peer needs for a warm restart: its identity, its
+ * neighbours with their failure-detector state, the seed failure counts and the dedup window.
+ *
+ * Snapshots are written to a temporary file and moved into place, so a crash mid-write leaves the
+ * previous snapshot intact.
+ */
+class PeerSnapshot {
+
+    private static final int MAGIC = 0x47534E50; // "GSNP"
+    private static final int VERSION = 1;
+    private static final int MIN_NEIGHBOUR_BYTES = 2 + 4 + 4 + 8 + 4 + 1; // With an empty ip
+    private static final int MIN_SEED_BYTES = 2 + 4; // With an empty key
+
+    long savedAt;
+    String ip;
+    int port;
+    final List<Neighbour> neighbours = new ArrayList<>();
+    final Map<String, Integer> seedFailures = new HashMap<>();
+    long[] seenMessageIds = new long[0];
+
+    static class Neighbour {
+        String ip;
+        int port;
+        int missedPings;
+        double rttMillis;
+        int degree;
+        boolean longLink;
+    }
+
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(savedAt);
+            out.writeUTF(ip);
+            out.writeInt(port);
+
+            out.writeInt(neighbours.size());
+            for (Neighbour neighbour : neighbours) {
+                out.writeUTF(neighbour.ip);
+                out.writeInt(neighbour.port);
+                out.writeInt(neighbour.missedPings);
+                out.writeDouble(neighbour.rttMillis);
+                out.writeInt(neighbour.degree);
+                out.writeBoolean(neighbour.longLink);
+            }
+
+            out.writeInt(seedFailures.size());
+            for (Map.Entry<String, Integer> entry : seedFailures.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+
+            out.writeInt(seenMessageIds.length);
+            for (long messageId : seenMessageIds) {
+                out.writeLong(messageId);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot, or returns null if there is none, it is older than {@code maxAgeMillis}
+     * or it cannot be parsed. Every count in the file is checked against the bytes left, so a
+     * truncated or corrupt file is treated as no snapshot.
+     */
+    static PeerSnapshot read(File file, long maxAgeMillis) {
+        if (!file.exists()) return null;
+
+        // Read whole, so available() is exactly the bytes left to check the counts against
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.out.println("Ignoring peer snapshot with unknown format: " + file);
+                return null;
+            }
+            PeerSnapshot snapshot = new PeerSnapshot();
+            snapshot.savedAt = in.readLong();
+            if (System.currentTimeMillis() - snapshot.savedAt > maxAgeMillis) {
+                System.out.println("Ignoring stale peer snapshot from " + snapshot.savedAt);
+                return null;
+            }
+            snapshot.ip = in.readUTF();
+            snapshot.port = in.readInt();
+
+            int neighbourCount = readCount(in, MIN_NEIGHBOUR_BYTES);
+            for (int i = 0; i < neighbourCount; i++) {
+                Neighbour neighbour = new Neighbour();
+                neighbour.ip = in.readUTF();
+                neighbour.port = in.readInt();
+                neighbour.missedPings = in.readInt();
+                neighbour.rttMillis = in.readDouble();
+                neighbour.degree = in.readInt();
+                neighbour.longLink = in.readBoolean();
+                snapshot.neighbours.add(neighbour);
+            }
+
+            int seedCount = readCount(in, MIN_SEED_BYTES);
+            for (int i = 0; i < seedCount; i++) {
+                snapshot.seedFailures.put(in.readUTF(), in.readInt());
+            }
+
+            int seenCount = readCount(in, Long.BYTES);
+            snapshot.seenMessageIds = new long[seenCount];
+            for (int i = 0; i < seenCount; i++) {
+                snapshot.seenMessageIds[i] = in.readLong();
+            }
+            return snapshot;
+        } catch (IOException e) {
+            System.out.println("Failed to read peer snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Reads a record count, failing if that many records of at least minRecordBytes cannot fit in what is left
+    private static int readCount(DataInputStream in, int minRecordBytes) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || (long) count * minRecordBytes > in.available()) {
+            throw new IOException("Corrupt record count " + count);
+        }
+        return count;
+    }
+}
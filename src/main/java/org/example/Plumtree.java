@@ -0,0 +1,152 @@
+package org.example;
+
+import java.util.*;
+
+
+/**
+ * Epidemic broadcast tree (Plumtree) state for one peer.
+ *
+ * Every neighbour starts on the eager side: full messages are pushed to it. A neighbour that
+ * delivers a duplicate is pruned to the lazy side and only gets "IHAVE" announcements from then
+ * on, so in steady state the eager links form a spanning tree. If an announced message does not
+ * arrive through the tree in time, the peer grafts the announcer back onto the eager side and
+ * asks it for the message, which repairs the tree after failures.
+ *
+ * The class only tracks which links are lazy and which announcements are outstanding. Moving
+ * bytes is left to the {@link Transport}, so the same logic runs over sockets or in a simulator.
+ *
+ * @param <P> how the caller identifies a neighbour
+ */
+class Plumtree<P> {
+
+    private static final int MAX_MISSING = 4096; // Outstanding announcements tracked at once
+
+    /** Sends Plumtree control messages and grafted payloads to one neighbour. */
+    interface Transport<P> {
+        void sendIHave(P peer, long messageId);
+
+        void sendGraft(P peer, long messageId);
+
+        void sendPrune(P peer);
+
+        /** Sends the full message, answering a graft. */
+        void sendMessage(P peer, long messageId);
+    }
+
+    // A message that was announced but has not arrived yet
+    private static class Missing<P> {
+        final Deque<P> announcers = new ArrayDeque<>();
+        long deadline;
+    }
+
+    private final Transport<P> transport;
+    private final Clock clock;
+    private final long ihaveTimeout;
+    private final long graftTimeout;
+    private final Set<P> lazyPeers = new HashSet<>(); // Every other neighbour is eager
+    private final LinkedHashMap<Long, Missing<P>> missing = new LinkedHashMap<>();
+
+
+    Plumtree(Transport<P> transport, Clock clock, long ihaveTimeout, long graftTimeout) {
+        this.transport = transport;
+        this.clock = clock;
+        this.ihaveTimeout = ihaveTimeout;
+        this.graftTimeout = graftTimeout;
+    }
+
+    synchronized boolean isEager(P peer) {
+        return !lazyPeers.contains(peer);
+    }
+
+    /**
+     * A message was delivered for the first time. The caller pushes it to the eager neighbours;
+     * this announces it to the lazy ones. {@code sender} is null for messages originated locally.
+     */
+    synchronized void delivered(long messageId, P sender, Iterable<P> neighbours) {
+        missing.remove(messageId);
+        if (sender != null) {
+            lazyPeers.remove(sender); // It is on our tree path now
+        }
+        for (P peer : neighbours) {
+            if (!peer.equals(sender) && lazyPeers.contains(peer)) {
+                transport.sendIHave(peer, messageId);
+            }
+        }
+    }
+
+    /**
+     * A message arrived again. The link it came over is redundant, so it is pruned to the lazy side.
+     */
+    synchronized void duplicate(P sender) {
+        if (sender != null && lazyPeers.add(sender)) {
+            transport.sendPrune(sender);
+        }
+    }
+
+    synchronized void onPrune(P sender) {
+        lazyPeers.add(sender);
+    }
+
+    synchronized void onGraft(long messageId, P sender) {
+        lazyPeers.remove(sender);
+        transport.sendMessage(sender, messageId);
+    }
+
+    /**
+     * A neighbour announced a message. {@code delivered} tells whether it already arrived here.
+     */
+    synchronized void onIHave(long messageId, P sender, boolean delivered) {
+        if (delivered) return;
+        Missing<P> entry = missing.get(messageId);
+        if (entry == null) {
+            if (missing.size() >= MAX_MISSING) {
+                Iterator<Long> oldest = missing.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            entry = new Missing<>();
+            entry.deadline = clock.millis() + ihaveTimeout;
+            missing.put(messageId, entry);
+        }
+        if (!entry.announcers.contains(sender)) {
+            entry.announcers.add(sender);
+        }
+    }
+
+    /**
+     * Grafts the next announcer for every announcement whose deadline has passed.
+     */
+    synchronized void tick() {
+        long now = clock.millis();
+        Iterator<Map.Entry<Long, Missing<P>>> iterator = missing.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Missing<P>> entry = iterator.next();
+            Missing<P> pending = entry.getValue();
+            if (pending.deadline > now) continue;
+
+            P announcer = pending.announcers.poll();
+            if (announcer == null) {
+                iterator.remove(); // Nobody left to ask
+                continue;
+            }
+            lazyPeers.remove(announcer);
+            transport.sendGraft(announcer, entry.getKey());
+            pending.deadline = now + graftTimeout;
+        }
+    }
+
+    synchronized void neighbourDown(P peer) {
+        lazyPeers.remove(peer);
+        for (Missing<P> pending : missing.values()) {
+            pending.announcers.remove(peer);
+        }
+    }
+
+    synchronized boolean hasPending() {
+        return !missing.isEmpty();
+    }
+
+    synchronized int lazyCount() {
+        return lazyPeers.size();
+    }
+}
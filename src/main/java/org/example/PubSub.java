@@ -0,0 +1,221 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Topic subscriptions for one peer: the local handlers and which topics each neighbour wants.
+ *
+ * Neighbours advertise the topics wanted at or behind them as {@code topics:<topic>@<hops>,...}
+ * over their gossip link. A peer advertises its own subscriptions at zero hops plus everything its
+ * other neighbours advertised, one hop further, so interest spreads back along the overlay towards
+ * publishers. Advertisements are refreshed periodically and expire, and entries more than
+ * {@code MAX_HOPS} away are dropped, so interest in a topic nobody wants any more dies out.
+ *
+ * Application messages travel as ordinary gossip, {@code <timestamp>:<ip>:<port>:<uuid>:<kind>:<topic>:<body>},
+ * where kind is {@code pub} for an inline base64 payload and {@code chunked} for a
+ * {@link ChunkTransfer} manifest.
+ *
+ * @param <P> how the caller identifies a neighbour
+ */
+class PubSub<P> {
+
+    static final String TOPICS_PREFIX = "topics:";
+    static final String INLINE = "pub";
+    static final String CHUNKED = "chunked";
+    private static final int MAX_HOPS = 8;
+    private static final int MAX_TOPIC_LENGTH = 128;
+
+    /** A parsed application message. {@code body} starts after the topic. */
+    static class Message {
+        final boolean chunked;
+        final String topic;
+        final int bodyStart;
+        final int bodyEnd;
+
+        Message(boolean chunked, String topic, int bodyStart, int bodyEnd) {
+            this.chunked = chunked;
+            this.topic = topic;
+            this.bodyStart = bodyStart;
+            this.bodyEnd = bodyEnd;
+        }
+    }
+
+    // Topics one neighbour wants, with their distance to the nearest subscriber
+    private static class Interest {
+        final Map<String, Integer> hops;
+        final long updatedAt;
+
+        Interest(Map<String, Integer> hops, long updatedAt) {
+            this.hops = hops;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private final Clock clock;
+    private final long expiry;
+    private final Map<String, List<PeerNode.MessageHandler>> handlers = new ConcurrentHashMap<>();
+    private final Map<P, Interest> interests = new ConcurrentHashMap<>();
+
+
+    PubSub(Clock clock, long expiry) {
+        this.clock = clock;
+        this.expiry = expiry;
+    }
+
+    /** Topics are short names made of letters, digits, '.', '-' and '_'. */
+    static boolean isValidTopic(String topic) {
+        if (topic == null || topic.isEmpty() || topic.length() > MAX_TOPIC_LENGTH) return false;
+        for (int i = 0; i < topic.length(); i++) {
+            char c = topic.charAt(i);
+            if (!(Character.isLetterOrDigit(c) && c < 128) && c != '.' && c != '-' && c != '_') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Recognises an application message in a gossip payload without allocating for plain gossip.
+     * Returns null if the payload is not one.
+     */
+    static Message parse(byte[] data, int start, int end) {
+        // Skip <timestamp>:<ip>:<port>:<uuid>:
+        int i = start;
+        for (int colons = 0; colons < 4; i++) {
+            if (i >= end) return null;
+            if (data[i] == ':') colons++;
+        }
+        boolean chunked;
+        if (matches(data, i, end, INLINE)) {
+            chunked = false;
+            i += INLINE.length() + 1;
+        } else if (matches(data, i, end, CHUNKED)) {
+            chunked = true;
+            i += CHUNKED.length() + 1;
+        } else {
+            return null;
+        }
+        int topicEnd = i;
+        while (topicEnd < end && data[topicEnd] != ':') topicEnd++;
+        if (topicEnd == i || topicEnd == end) return null;
+        String topic = new String(data, i, topicEnd - i, StandardCharsets.US_ASCII);
+        return new Message(chunked, topic, topicEnd + 1, end);
+    }
+
+    // True if <kind>: starts at offset
+    private static boolean matches(byte[] data, int offset, int end, String kind) {
+        if (end - offset <= kind.length()) return false;
+        for (int i = 0; i < kind.length(); i++) {
+            if (data[offset + i] != kind.charAt(i)) return false;
+        }
+        return data[offset + kind.length()] == ':';
+    }
+
+    static String encode(String header, boolean chunked, String topic, String body) {
+        return header + ":" + (chunked ? CHUNKED : INLINE) + ":" + topic + ":" + body;
+    }
+
+    void subscribe(String topic, PeerNode.MessageHandler handler) {
+        handlers.computeIfAbsent(topic, key -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    boolean unsubscribe(String topic, PeerNode.MessageHandler handler) {
+        List<PeerNode.MessageHandler> list = handlers.get(topic);
+        if (list == null || !list.remove(handler)) return false;
+        handlers.computeIfPresent(topic, (key, current) -> current.isEmpty() ? null : current);
+        return true;
+    }
+
+    boolean isSubscribed(String topic) {
+        return handlers.containsKey(topic);
+    }
+
+    /**
+     * Hands a payload to every local handler of the topic. Each handler gets its own read-only
+     * view; none may keep it after returning. Returns the number of handlers called.
+     */
+    int deliver(String topic, ByteBuffer payload) {
+        List<PeerNode.MessageHandler> list = handlers.get(topic);
+        if (list == null) return 0;
+        for (PeerNode.MessageHandler handler : list) {
+            try {
+                handler.onMessage(topic, payload.asReadOnlyBuffer());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return list.size();
+    }
+
+    /** True if the neighbour has a subscriber for the topic at or behind it. */
+    boolean wants(P peer, String topic) {
+        Interest interest = interests.get(peer);
+        return interest != null && clock.millis() - interest.updatedAt < expiry && interest.hops.containsKey(topic);
+    }
+
+    /** True if this peer subscribes to the topic or relays it to a neighbour that does. */
+    boolean interested(String topic) {
+        if (isSubscribed(topic)) return true;
+        for (P peer : interests.keySet()) {
+            if (wants(peer, topic)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a neighbour's advertisement. Returns true if the set of topics it wants changed,
+     * so the caller can pass the news on without waiting for the next refresh.
+     */
+    boolean onAdvertisement(P peer, String line) {
+        Map<String, Integer> hops = new HashMap<>();
+        String list = line.substring(TOPICS_PREFIX.length());
+        for (String entry : list.split(",")) {
+            int at = entry.lastIndexOf('@');
+            if (at <= 0) continue;
+            String topic = entry.substring(0, at);
+            try {
+                int distance = Integer.parseInt(entry.substring(at + 1));
+                if (distance >= 0 && distance <= MAX_HOPS && isValidTopic(topic)) {
+                    hops.merge(topic, distance, Math::min);
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Interest previous = interests.put(peer, new Interest(hops, clock.millis()));
+        return previous == null ? !hops.isEmpty() : !previous.hops.keySet().equals(hops.keySet());
+    }
+
+    /**
+     * The advertisement line for one neighbour: our own subscriptions plus what the other
+     * neighbours want. What {@code peer} told us is left out so it does not come straight back.
+     */
+    String advertisement(P peer) {
+        Map<String, Integer> hops = new TreeMap<>();
+        for (String topic : handlers.keySet()) {
+            hops.put(topic, 0);
+        }
+        long now = clock.millis();
+        for (Map.Entry<P, Interest> entry : interests.entrySet()) {
+            if (entry.getKey().equals(peer) || now - entry.getValue().updatedAt >= expiry) continue;
+            for (Map.Entry<String, Integer> topic : entry.getValue().hops.entrySet()) {
+                if (topic.getValue() < MAX_HOPS) {
+                    hops.merge(topic.getKey(), topic.getValue() + 1, Math::min);
+                }
+            }
+        }
+
+        StringBuilder line = new StringBuilder(TOPICS_PREFIX);
+        for (Map.Entry<String, Integer> topic : hops.entrySet()) {
+            if (line.length() > TOPICS_PREFIX.length()) line.append(',');
+            line.append(topic.getKey()).append('@').append(topic.getValue());
+        }
+        return line.toString();
+    }
+
+    void neighbourDown(P peer) {
+        interests.remove(peer);
+    }
+}
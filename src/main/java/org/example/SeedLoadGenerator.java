@@ -0,0 +1,156 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Heartbeat load generator for a running seed.
+ *
+ * Each connection is a keep-alive socket that sends heartbeats in pipelined batches: it writes
+ * {@code batch} requests at once, then reads the {@code batch} response lines before sending the
+ * next batch. The heartbeats come from {@code peers} made-up peers, so the seed tracks as many
+ * entries as a real network of that size would. Responses are counted after a warm-up, and the
+ * rate is printed at the end. The first response of every batch is checked for success.
+ *
+ * Usage: java org.example.SeedLoadGenerator [--host 127.0.0.1] [--port 5001] [--connections 8]
+ *        [--batch 500] [--peers 1000] [--warmup 2000] [--duration 10000]
+ */
+public class SeedLoadGenerator {
+
+    static class Config {
+        String host = "127.0.0.1";
+        int port = 5001;
+        int connections = 8;
+        int batch = 500; // Heartbeats written before reading their responses
+        int peers = 1000; // Distinct peers the heartbeats claim to come from
+        long warmup = 2000;
+        long duration = 10000; // Measured time, after the warm-up
+    }
+
+    private final Config config;
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong(); // Batches whose first response was not a success
+    private volatile boolean running = true;
+
+
+    SeedLoadGenerator(Config config) {
+        this.config = config;
+    }
+
+    // One pipelined batch of heartbeats, from peers first, first + 1, ... wrapping at config.peers
+    private byte[] batch(int first) {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < config.batch; i++) {
+            int peer = (first + i) % config.peers;
+            requests.append("{\"type\":\"heartbeat\",\"ip\":\"10.")
+                    .append(peer >> 16 & 0xFF).append('.').append(peer >> 8 & 0xFF).append('.').append(peer & 0xFF)
+                    .append("\",\"port\":").append(6000 + peer % 1000).append("}\n");
+        }
+        return requests.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void drive(int connection) {
+        byte[] requests = batch(connection * config.batch);
+        byte[] input = new byte[64 * 1024];
+        byte[] firstLine = new byte[256];
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(config.host, config.port), GossipRules.PING_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            while (running) {
+                out.write(requests);
+                out.flush();
+                int lines = 0;
+                int firstLength = 0;
+                while (lines < config.batch) {
+                    int read = in.read(input);
+                    if (read < 0) throw new IOException("Seed closed the connection");
+                    for (int i = 0; i < read; i++) {
+                        if (lines == 0 && firstLength < firstLine.length) firstLine[firstLength++] = input[i];
+                        if (input[i] == '\n') lines++;
+                    }
+                }
+                if (!new String(firstLine, 0, firstLength, StandardCharsets.UTF_8).contains("success")) {
+                    failures.incrementAndGet();
+                }
+                responses.addAndGet(lines);
+            }
+        } catch (IOException e) {
+            if (running) System.out.println("Connection " + connection + " failed: " + e.getMessage());
+        }
+    }
+
+    void run() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < config.connections; i++) {
+            int connection = i;
+            Thread thread = new Thread(() -> drive(connection), "seed-load-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(config.warmup);
+        long startCount = responses.get();
+        long started = System.nanoTime();
+        Thread.sleep(config.duration);
+        long count = responses.get() - startCount;
+        double seconds = (System.nanoTime() - started) / 1e9;
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.printf("%,d heartbeats in %.1f s over %d connections, batches of %d: %,.0f heartbeats/s%n",
+                count, seconds, config.connections, config.batch, count / seconds);
+        if (failures.get() > 0) {
+            System.out.printf("%,d batches started with an error response%n", failures.get());
+        }
+    }
+
+    static Config parse(String[] args) {
+        Config config = new Config();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+            String value = args[++i];
+            switch (option) {
+                case "--host" -> config.host = value;
+                case "--port" -> config.port = Integer.parseInt(value);
+                case "--connections" -> config.connections = Integer.parseInt(value);
+                case "--batch" -> config.batch = Integer.parseInt(value);
+                case "--peers" -> config.peers = Integer.parseInt(value);
+                case "--warmup" -> config.warmup = Long.parseLong(value);
+                case "--duration" -> config.duration = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (config.connections < 1) throw new IllegalArgumentException("--connections must be at least 1");
+        if (config.batch < 1) throw new IllegalArgumentException("--batch must be at least 1");
+        if (config.peers < 1) throw new IllegalArgumentException("--peers must be at least 1");
+        return config;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Config config;
+        try {
+            config = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java org.example.SeedLoadGenerator [--host 127.0.0.1] [--port 5001] [--connections 8]");
+            System.err.println("       [--batch 500] [--peers 1000] [--warmup 2000] [--duration 10000]");
+            System.exit(2);
+            return;
+        }
+        new SeedLoadGenerator(config).run();
+    }
+}
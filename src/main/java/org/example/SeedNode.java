@@ -1,12 +1,8 @@
 package org.example;
 
 import java.io.*;
-import java.net.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.json.JSONObject;
 import org.json.JSONArray;
@@ -14,17 +10,34 @@ import org.json.JSONException;
 
 import static java.lang.System.out;
 
-public class SeedNode {
+/**
+ * Seed node serving every port listed in its config file. Like {@link PeerNode} it runs on a
+ * shared {@link NodeRuntime}, so seeds and peers can share one JVM.
+ */
+public class SeedNode implements AutoCloseable {
     private static final String CONFIG_FILE = "config.txt";
     private static final String LOG_FILE = "seed_log.txt"; // Log file for SeedNode
     private static final int HEARTBEAT_TIMEOUT = 15000;
-    private static Set<PeerNode.PeerInfo> connectedPeers = new HashSet<>();
-    private static Map<String, PeerNode.PeerInfo> peerList = new HashMap<>();
-    private static Map<String, Long> lastHeartbeat = new ConcurrentHashMap<>();
-    private static final ScheduledExecutorService heartbeatChecker = Executors.newScheduledThreadPool(1);
+    private static final long HEARTBEAT_CHECK_INTERVAL = 10000; // 10 seconds
+    private final NodeRuntime runtime;
+    private final File configFile;
+    private final Set<PeerNode.PeerInfo> connectedPeers = ConcurrentHashMap.newKeySet();
+    // Keyed by ip:port so several peers on one host are tracked separately
+    private final Map<String, PeerNode.PeerInfo> peerList = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastHeartbeat = new ConcurrentHashMap<>();
+    private final DeadNodeReports<String> deadReports = new DeadNodeReports<>(Clock.SYSTEM, GossipRules.DEAD_REPORT_WINDOW);
+    private final Set<Integer> seedPorts = new LinkedHashSet<>();
+    private SeedServer server;
+    private NodeRuntime.Periodic heartbeatChecker;
+
+
+    public SeedNode(NodeRuntime runtime, File configFile) {
+        this.runtime = runtime;
+        this.configFile = configFile;
+    }
 
 
-    private static void logMessage(String message) {
+    static void logMessage(String message) {
         try (FileWriter fw = new FileWriter(LOG_FILE, true); // Append mode
              BufferedWriter bw = new BufferedWriter(fw);
              PrintWriter out = new PrintWriter(bw)) {
@@ -118,11 +131,9 @@ public class SeedNode {
 //    }
 
 
-    private static void loadSeedsFromFile() throws IOException {
-        File configFile = new File(CONFIG_FILE); // Use writable config.txt in root folder
-
+    private void loadSeedsFromFile() throws IOException {
         if (!configFile.exists()) {
-            throw new FileNotFoundException("config.txt not found: " + configFile.getAbsolutePath());
+            throw new FileNotFoundException(configFile.getName() + " not found: " + configFile.getAbsolutePath());
         }
 
         try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
@@ -137,25 +148,22 @@ public class SeedNode {
                     String portStr = parts[1].trim();
                     try {
                         int port = Integer.parseInt(portStr);
-                        peerList.put(ip, new PeerNode.PeerInfo(ip, port));
+                        seedPorts.add(port);
                         logMessage("Loaded Seeds: " + ip + ":" + port);
 
-                        // Start the server for this seed immediately
-                        new Thread(() -> startServer(port)).start();
-
                     } catch (NumberFormatException e) {
                         logMessage("Error parsing port number: " + portStr);
                     }
                 }
             }
         } catch (IOException e) {
-            out.println("Failed to load peers from config.txt: " + e.getMessage());
+            out.println("Failed to load peers from " + configFile + ": " + e.getMessage());
         }
     }
 
 
 //    // Save updated peer list to config.txt
-//    private static void savePeersToFile() throws IOException {
+//    private static synchronized void savePeersToFile() throws IOException {
 //        try (PrintWriter writer = new PrintWriter(new FileWriter(CONFIG_FILE))) {
 //            for (PeerNode.PeerInfo peer : peerList.values()) {
 //                writer.println(peer.ip + ":" + peer.port);
@@ -164,8 +172,7 @@ public class SeedNode {
 //
 //    }
 // Save updated peer list to config.txt without removing previous peers
-private static void savePeersToFile() throws IOException {
-    File configFile = new File(CONFIG_FILE);
+private synchronized void savePeersToFile() throws IOException {
     Set<String> uniquePeers = new HashSet<>();
 
     // Read existing peers
@@ -186,7 +193,7 @@ private static void savePeersToFile() throws IOException {
     }
 
     // Write back all unique peers
-    try (PrintWriter writer = new PrintWriter(new FileWriter(CONFIG_FILE))) {
+    try (PrintWriter writer = new PrintWriter(new FileWriter(configFile))) {
         for (String peer : uniquePeers) {
             writer.println(peer);
         }
@@ -195,40 +202,35 @@ private static void savePeersToFile() throws IOException {
     logMessage("📄 Peer list updated in config.txt");
 }
 
-    // Accept connections from peers and handle their registration
-    private static void startServer(int port) {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            logMessage("Seed Node listening on port " + port);
-            while (true) {
-                Socket socket = serverSocket.accept();
-                new Thread(() -> handlePeerRegistration(socket)).start();
-            }
-        } catch (IOException e) {
-            logMessage("Error starting server on port " + port + ": " + e.getMessage());
+    // Handles one request line from a peer and returns the single response line
+    private String handleRequest(String message) {
+        if (message == null || message.trim().isEmpty()) {
+            logMessage("ERROR: Received empty message. Ignoring...");
+            return errorResponse("Empty message");
         }
-    }
-
-
-    private static void handlePeerRegistration(Socket socket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-
-
-            String message = in.readLine();
-            logMessage("Received raw message -> " + message);
 
-            if (message == null || message.trim().isEmpty()) {
-                logMessage("ERROR: Received empty message. Ignoring...");
-                return;
+        // Peers report failures in the plain-text "Dead Node:<ip>:<port>:<timestamp>:<reporter ip>:<reporter port>" format
+        if (message.startsWith("Dead Node:")) {
+            String[] parts = message.split(":");
+            if (parts.length >= 3) {
+                try {
+                    String reporter = parts.length >= 6 ? parts[4].trim() + ":" + parts[5].trim()
+                            : parts.length == 5 ? parts[4].trim() : "unknown";
+                    reportDeadNode(parts[1].trim(), Integer.parseInt(parts[2].trim()), reporter);
+                } catch (NumberFormatException | IOException e) {
+                    logMessage("Error handling dead node report: " + message);
+                }
             }
+            return "ACK";
+        }
 
 // Check if the message starts with '{' (valid JSON object)
-            if (!message.trim().startsWith("{")) {
-                logMessage("ERROR: Message is not JSON! Received -> " + message);
-                return;
-            }
-
+        if (!message.trim().startsWith("{")) {
+            logMessage("ERROR: Message is not JSON! Received -> " + message);
+            return errorResponse("Message is not JSON");
+        }
 
+        try {
             JSONObject jsonMessage = new JSONObject(message);
             String type = jsonMessage.getString("type");
 
@@ -238,16 +240,16 @@ private static void savePeersToFile() throws IOException {
                 int peerPort = jsonMessage.getInt("port");
 
                 PeerNode.PeerInfo peerInfo = new PeerNode.PeerInfo(peerIp, peerPort);
-                peerList.put(peerIp, peerInfo);
+                peerList.put(peerIp + ":" + peerPort, peerInfo);
                 connectedPeers.add(peerInfo);
 
                 JSONObject response = new JSONObject();
                 response.put("status", "success");
                 response.put("message", "Registered successfully: " + peerIp + ":" + peerPort);
 
-                out.println(response.toString());  // Send response
                 logMessage("Registered peer: " + peerIp + ":" + peerPort);
                 savePeersToFile();
+                return response.toString();
 
             } else if (type.equals("get_peers")) {
                 // Send list of connected peers
@@ -263,65 +265,90 @@ private static void savePeersToFile() throws IOException {
                 }
 
                 response.put("peers", peersArray);
-                out.println(response);  // Send response
                 logMessage("Sent peer list: " + response);
+                return response.toString();
 
             } else if (type.equals("heartbeat")) {
-                // Update last heartbeat time
+                // Update last heartbeat time; only the first one from a peer is logged to keep this path cheap
                 String peerIp = jsonMessage.getString("ip");
                 int peerPort = jsonMessage.getInt("port");
 
-                lastHeartbeat.put(peerIp, System.currentTimeMillis());
+                deadReports.alive(peerIp + ":" + peerPort);
+                if (lastHeartbeat.put(peerIp + ":" + peerPort, System.currentTimeMillis()) == null) {
+                    logMessage("✅ Heartbeat received from " + peerIp + ":" + peerPort);
+                }
 
                 JSONObject response = new JSONObject();
                 response.put("status", "success");
                 response.put("message", "Heartbeat received from " + peerIp + ":" + peerPort);
-                out.println(response.toString());  // Send response
+                return response.toString();
 
-                logMessage("✅ Heartbeat received from " + peerIp + ":" + peerPort);
             } else if (type.equals("dead_node")) {
                 // Handle dead node removal
-                String deadIp = jsonMessage.getString("ip");
-                int deadPort = jsonMessage.getInt("port");
-
-                peerList.remove(deadIp);
-                connectedPeers.removeIf(p -> p.ip.equals(deadIp) && p.port == deadPort);
-
-                savePeersToFile();
-                logMessage("Removed dead node: " + deadIp + ":" + deadPort);
+                reportDeadNode(jsonMessage.getString("ip"), jsonMessage.getInt("port"), jsonMessage.optString("reporter", "unknown"));
             }
-
-            out.println("ACK");  // Acknowledge message
+            return "ACK";  // Acknowledge message
         } catch (JSONException e) {
             logMessage("JSON error: " + e.getMessage());
-            e.printStackTrace();
+            return errorResponse(e.getMessage());
         } catch (IOException e) {
             logMessage("Error handling peer message: " + e.getMessage());
+            return errorResponse(e.getMessage());
         }
     }
 
-    private static void checkHeartbeats() {
+    // Drops the peer once the report is confirmed by a second reporter or by its own heartbeats having stopped
+    private void reportDeadNode(String deadIp, int deadPort, String reporter) throws IOException {
+        String key = deadIp + ":" + deadPort;
+        Long heartbeat = lastHeartbeat.get(key);
+        boolean silent = heartbeat == null || System.currentTimeMillis() - heartbeat > GossipRules.DEAD_REPORT_SILENCE;
+        if (deadReports.report(key, reporter, silent)) {
+            removeDeadNode(deadIp, deadPort);
+        } else {
+            logMessage("Dead node report for " + key + " from " + reporter + ", still heartbeating; waiting for a second reporter.");
+        }
+    }
+
+    private void removeDeadNode(String deadIp, int deadPort) throws IOException {
+        String key = deadIp + ":" + deadPort;
+        peerList.remove(key);
+        lastHeartbeat.remove(key);
+        connectedPeers.removeIf(p -> p.ip.equals(deadIp) && p.port == deadPort);
+
+        savePeersToFile();
+        logMessage("Removed dead node: " + key);
+    }
+
+    private static String errorResponse(String message) {
+        JSONObject response = new JSONObject();
+        response.put("status", "error");
+        response.put("message", message);
+        return response.toString();
+    }
+
+    private void checkHeartbeats() {
         long currentTime = System.currentTimeMillis();
         Iterator<Map.Entry<String, Long>> iterator = lastHeartbeat.entrySet().iterator();
 
         while (iterator.hasNext()) {
             Map.Entry<String, Long> entry = iterator.next();
-            String peerIp = entry.getKey();
+            String peerKey = entry.getKey();
             long lastPingTime = entry.getValue();
 
             if (currentTime - lastPingTime > HEARTBEAT_TIMEOUT) {
-                logMessage("Peer " + peerIp + " is unresponsive. Removing from peer list.");
+                logMessage("Peer " + peerKey + " is unresponsive. Removing from peer list.");
 
-                peerList.remove(peerIp);
-                connectedPeers.removeIf(p -> p.ip.equals(peerIp));
+                PeerNode.PeerInfo peer = peerList.remove(peerKey);
+                if (peer != null) connectedPeers.remove(peer);
                 iterator.remove();
             }
         }
+        deadReports.expire();
     }
 
 
 
-    private static void saveDegreeDistribution() {
+    private void saveDegreeDistribution() {
         Map<Integer, Integer> degreeCount = new HashMap<>();
 
         // Count the number of connections for each peer
@@ -344,7 +371,7 @@ private static void savePeersToFile() throws IOException {
     }
 
     // Helper function to get peer degree
-    private static int getPeerDegree(String peerIp) {
+    private int getPeerDegree(String peerIp) {
         int degree = 0;
         for (PeerNode.PeerInfo peer : peerList.values()) {
             if (peer.ip.equals(peerIp)) {
@@ -354,18 +381,47 @@ private static void savePeersToFile() throws IOException {
         return degree;
     }
 
-    public static void main(String[] args) throws IOException {
+    /**
+     * Loads the seed ports and starts serving them on the runtime's event loop. Returns false if
+     * no port could be bound.
+     */
+    public synchronized boolean start() throws IOException {
         loadSeedsFromFile();  // Load seed nodes from config.txt
 
-        for (PeerNode.PeerInfo seed : peerList.values()) {
-            int port = seed.port;  // Get the port from the loaded seeds
-            new Thread(() -> startServer(port)).start();  // Start server dynamically
+        // One loop serves every configured port
+        server = new SeedServer(seedPorts, runtime.eventLoop(), runtime.workers(), this::handleRequest);
+        if (server.bind() == 0) {
+            server = null;
+            return false;
+        }
+//        saveDegreeDistribution();
 
+        heartbeatChecker = runtime.repeat(this::checkHeartbeats, HEARTBEAT_CHECK_INTERVAL);
+        return true;
+    }
 
+    public synchronized void stop() {
+        if (heartbeatChecker != null) {
+            heartbeatChecker.cancel();
+            heartbeatChecker = null;
         }
-//        saveDegreeDistribution();
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
 
-        heartbeatChecker.scheduleAtFixedRate(SeedNode::checkHeartbeats, 10, 10, TimeUnit.SECONDS);
+    @Override
+    public void close() {
+        stop();
+    }
+
+    public static void main(String[] args) throws IOException {
+        NodeRuntime runtime = NodeRuntime.shared();
+        if (!new SeedNode(runtime, new File(CONFIG_FILE)).start()) {
+            logMessage("Could not bind any seed port, exiting.");
+            runtime.close();
+        }
     }
 
 }
@@ -0,0 +1,264 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * NIO front end for the seed node, running on a shared {@link EventLoop}.
+ *
+ * The loop accepts on every configured port and reads newline-terminated requests from
+ * keep-alive connections. Requests are handed to a worker pool; each connection is served by
+ * at most one worker at a time, so pipelined requests are answered in the order they arrived.
+ * Responses are queued back to the loop thread, which owns all socket writes. A worker wakes the
+ * loop once per batch of responses rather than once per response, so a pipelined burst of
+ * requests costs one wakeup.
+ */
+class SeedServer {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_REQUEST_SIZE = 64 * 1024;
+    private static final int MAX_QUEUED_RESPONSES = 1024; // Stop reading from a client that is not reading
+    private static final int MAX_RESPONSE_BATCH = 64; // Responses a worker queues before waking the loop mid-drain
+
+    /** Turns one request line into one response line, or null for no response. */
+    interface RequestHandler {
+        String handle(String request);
+    }
+
+    private final Set<Integer> ports;
+    private final RequestHandler handler;
+    private final EventLoop eventLoop;
+    private final ExecutorService workers;
+    private final List<ServerSocketChannel> servers = new ArrayList<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+
+    private class Connection implements EventLoop.Handler {
+        final SocketChannel channel;
+        SelectionKey key; // Set on the loop before the first request is read
+        ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final Queue<String> requests = new ArrayDeque<>(); // Guarded by this
+        final Queue<ByteBuffer> responses = new ArrayDeque<>(); // Guarded by this
+        boolean scheduled; // A worker is draining the requests, guarded by this
+        boolean flushPending; // The loop has been asked to write the responses, guarded by this
+        final Runnable drainTask = this::drain;
+        final Runnable flushTask = () -> flush(this);
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void ready(SelectionKey key) {
+            this.key = key;
+            try {
+                if (key.isReadable()) read(this);
+                if (key.isValid() && key.isWritable()) write(this);
+            } catch (IOException e) {
+                close(this);
+            }
+        }
+
+        // Runs on a worker: answers queued requests in order until none are left, waking the loop per batch
+        void drain() {
+            int batch = 0;
+            while (true) {
+                String request;
+                synchronized (this) {
+                    request = requests.poll();
+                    if (request == null) {
+                        scheduled = false;
+                        if (batch > 0) requestFlush();
+                        return;
+                    }
+                }
+
+                String response;
+                try {
+                    response = handler.handle(request);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    response = null;
+                }
+                if (response == null) continue;
+
+                ByteBuffer buffer = ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8));
+                synchronized (this) {
+                    responses.add(buffer);
+                    if (++batch >= MAX_RESPONSE_BATCH) {
+                        requestFlush();
+                        batch = 0;
+                    }
+                }
+            }
+        }
+
+        // Wakes the loop to write the queued responses, unless a wakeup is already on its way
+        private void requestFlush() {
+            synchronized (this) {
+                if (flushPending) return;
+                flushPending = true;
+            }
+            eventLoop.execute(flushTask);
+        }
+    }
+
+
+    SeedServer(Set<Integer> ports, EventLoop eventLoop, ExecutorService workers, RequestHandler handler) {
+        this.ports = ports;
+        this.handler = handler;
+        this.eventLoop = eventLoop;
+        this.workers = workers;
+    }
+
+    /**
+     * Binds every port it can. Returns the number of ports bound.
+     */
+    int bind() {
+        int bound = 0;
+        for (int port : ports) {
+            ServerSocketChannel server = null;
+            try {
+                server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(port));
+                ServerSocketChannel listening = server;
+                eventLoop.register(server, SelectionKey.OP_ACCEPT, key -> accept(listening));
+                servers.add(server);
+                SeedNode.logMessage("Seed Node listening on port " + port);
+                bound++;
+            } catch (IOException e) {
+                SeedNode.logMessage("Error starting server on port " + port + ": " + e.getMessage());
+                if (server != null) {
+                    try {
+                        server.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        return bound;
+    }
+
+    // Runs on the loop. A failed accept leaves the port listening
+    private void accept(ServerSocketChannel server) {
+        try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel);
+                connections.add(connection);
+                eventLoop.register(channel, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException e) {
+            SeedNode.logMessage("Seed accept error: " + e.getMessage());
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        int read = connection.channel.read(connection.input);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+
+        // Split out every complete line; a pipelining client may send many at once
+        ByteBuffer input = connection.input;
+        byte[] array = input.array();
+        int filled = input.position();
+        int lineStart = 0;
+        boolean added = false;
+        for (int i = 0; i < filled; i++) {
+            if (array[i] != '\n') continue;
+            int lineEnd = (i > lineStart && array[i - 1] == '\r') ? i - 1 : i;
+            String request = new String(array, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+            synchronized (connection) {
+                connection.requests.add(request);
+            }
+            added = true;
+            lineStart = i + 1;
+        }
+        if (lineStart > 0) {
+            System.arraycopy(array, lineStart, array, 0, filled - lineStart);
+            input.position(filled - lineStart);
+        }
+        if (!input.hasRemaining()) {
+            if (input.capacity() >= MAX_REQUEST_SIZE) {
+                SeedNode.logMessage("ERROR: Request exceeds " + MAX_REQUEST_SIZE + " bytes, closing connection.");
+                close(connection);
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+            input.flip();
+            larger.put(input);
+            connection.input = larger;
+        }
+
+        if (added) {
+            synchronized (connection) {
+                if (!connection.scheduled) {
+                    connection.scheduled = true;
+                    workers.execute(connection.drainTask);
+                }
+                if (connection.requests.size() + connection.responses.size() > MAX_QUEUED_RESPONSES) {
+                    connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            }
+        }
+    }
+
+    // Runs on the loop once a worker has queued a batch of responses
+    private void flush(Connection connection) {
+        synchronized (connection) {
+            connection.flushPending = false;
+        }
+        if (!connection.key.isValid()) return;
+        try {
+            write(connection);
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        synchronized (connection) {
+            while (!connection.responses.isEmpty()) {
+                ByteBuffer buffer = connection.responses.peek();
+                connection.channel.write(buffer);
+                if (buffer.hasRemaining()) break; // Socket buffer full, wait for OP_WRITE
+                connection.responses.poll();
+            }
+
+            int ops = SelectionKey.OP_READ;
+            if (!connection.responses.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            if (connection.responses.size() + connection.requests.size() > MAX_QUEUED_RESPONSES) {
+                ops &= ~SelectionKey.OP_READ; // Back-pressure until the client catches up
+            }
+            connection.key.interestOps(ops);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.key != null) connection.key.cancel();
+        EventLoop.closeQuietly(connection.channel);
+        connections.remove(connection);
+    }
+
+    /** Stops accepting and closes every open connection. */
+    void close() {
+        for (ServerSocketChannel server : servers) {
+            EventLoop.closeQuietly(server);
+        }
+        servers.clear();
+        for (Connection connection : connections) {
+            EventLoop.closeQuietly(connection.channel);
+        }
+        connections.clear();
+    }
+}
@@ -0,0 +1,36 @@
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Counts the transfers served to each requester, so one requester cannot take every upload
+ * thread. Requesters are keyed by address; peers sharing a host share its limit.
+ */
+class ServeLimits {
+
+    private final int maxPerRequester;
+    private final Map<String, Integer> serving = new ConcurrentHashMap<>();
+
+
+    ServeLimits(int maxPerRequester) {
+        this.maxPerRequester = maxPerRequester;
+    }
+
+    /** Takes a slot for the requester, or returns false if it already has all of its slots. */
+    boolean tryAcquire(String requester) {
+        boolean[] acquired = new boolean[1];
+        serving.compute(requester, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxPerRequester) return count;
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    void release(String requester) {
+        serving.computeIfPresent(requester, (key, count) -> count <= 1 ? null : count - 1);
+    }
+}
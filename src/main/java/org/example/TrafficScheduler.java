@@ -0,0 +1,183 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Outbound scheduler with separate lanes for control traffic and bulk gossip.
+ *
+ * Control tasks (pings, handshakes, seed heartbeats, dead node reports) go on an unbounded queue
+ * served by a few reserved workers that never touch gossip, so failure detection keeps running
+ * however much gossip is queued. Shared workers serve both lanes, taking up to
+ * {@code controlWeight} control tasks for every gossip frame. The gossip lane is bounded by a pool
+ * of reusable frames; when the pool runs dry new frames are shed instead of queued.
+ *
+ * One scheduler can serve many nodes: each frame carries the {@link FrameSender} of the node that
+ * queued it, and each node counts its own backlog and shed frames.
+ */
+class TrafficScheduler {
+
+    private static final long IDLE_POLL_MILLIS = 10;
+
+    /** Writes a gossip frame to its targets. Called from the shared workers. */
+    interface FrameSender {
+        void send(OutboundFrame frame);
+    }
+
+    /** Pooled copy of an outgoing gossip frame. */
+    static class OutboundFrame {
+        private byte[] data = new byte[512];
+        private ByteBuffer buffer = ByteBuffer.wrap(data);
+        FrameSender sender; // Node that queued the frame
+        PeerNode.PeerInfo exclude; // Neighbour the frame came from, if any
+        PeerNode.PeerInfo target; // The one neighbour the frame is for, null to let the sender choose
+        String topic; // Application topic, null for plain gossip
+        PeerNode.PeerInfo[] neighbours; // Snapshot the relay picks from, set while the frame is being sent
+
+        void set(byte[] source, int offset, int length) {
+            if (length > data.length) {
+                data = new byte[Math.max(length, data.length * 2)];
+                buffer = ByteBuffer.wrap(data);
+            }
+            System.arraycopy(source, offset, data, 0, length);
+            buffer.clear().limit(length);
+        }
+
+        /** The frame bytes, from position 0 to the frame length. */
+        ByteBuffer buffer() {
+            return buffer;
+        }
+    }
+
+    private final BlockingQueue<Runnable> controlQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<OutboundFrame> dataQueue;
+    private final BlockingQueue<OutboundFrame> freeFrames;
+    private final int reservedControlWorkers;
+    private final int sharedWorkers;
+    private final int controlWeight;
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger dataSenders = new AtomicInteger(); // Nodes with gossip frames queued or in flight
+    private volatile boolean running = true;
+
+
+    TrafficScheduler(int reservedControlWorkers, int sharedWorkers, int controlWeight, int dataCapacity) {
+        this.reservedControlWorkers = reservedControlWorkers;
+        this.sharedWorkers = sharedWorkers;
+        this.controlWeight = controlWeight;
+        // One frame per queue slot plus one in flight per shared worker. A worker frees its frame
+        // before taking the next, so the queue has room for every frame and offers never fail.
+        this.dataQueue = new ArrayBlockingQueue<>(dataCapacity + sharedWorkers);
+        this.freeFrames = new ArrayBlockingQueue<>(dataCapacity + sharedWorkers);
+        for (int i = 0; i < dataCapacity + sharedWorkers; i++) {
+            freeFrames.add(new OutboundFrame());
+        }
+    }
+
+    void start() {
+        for (int i = 0; i < reservedControlWorkers; i++) {
+            Thread worker = new Thread(this::runControlWorker, "control-lane-" + i);
+            worker.setPriority(Thread.MAX_PRIORITY);
+            threads.add(worker);
+        }
+        for (int i = 0; i < sharedWorkers; i++) {
+            threads.add(new Thread(this::runSharedWorker, "gossip-lane-" + i));
+        }
+        threads.forEach(Thread::start);
+    }
+
+    void close() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+    }
+
+    void submitControl(Runnable task) {
+        controlQueue.add(task);
+    }
+
+    /**
+     * Returns a free frame to fill, or null if the gossip lane is saturated and the frame should be shed.
+     */
+    OutboundFrame acquireFrame() {
+        return freeFrames.poll();
+    }
+
+    void submitData(OutboundFrame frame) {
+        dataQueue.add(frame);
+    }
+
+    int dataCapacity() {
+        return dataQueue.size() + dataQueue.remainingCapacity();
+    }
+
+    /** A node queued its first frame on the gossip lane. */
+    void senderActive() {
+        dataSenders.incrementAndGet();
+    }
+
+    /** A node's last queued frame was sent. */
+    void senderIdle() {
+        dataSenders.decrementAndGet();
+    }
+
+    /**
+     * One node's fair share of the gossip lane: its capacity split over the nodes that have frames
+     * on it. A node alone on the lane gets all of it.
+     */
+    int dataShare() {
+        return Math.max(1, dataCapacity() / Math.max(1, dataSenders.get()));
+    }
+
+    private void runControlWorker() {
+        while (running) {
+            try {
+                runSafely(controlQueue.take());
+            } catch (InterruptedException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    // Weighted round robin: up to controlWeight control tasks, then one gossip frame
+    private void runSharedWorker() {
+        while (running) {
+            try {
+                for (int i = 0; i < controlWeight; i++) {
+                    Runnable task = controlQueue.poll();
+                    if (task == null) break;
+                    runSafely(task);
+                }
+                OutboundFrame frame = dataQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame != null) {
+                    try {
+                        frame.sender.send(frame);
+                    } finally {
+                        frame.sender = null;
+                        frame.exclude = null;
+                        frame.target = null;
+                        frame.topic = null;
+                        freeFrames.add(frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (running) e.printStackTrace();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class DedupWindowTest {
+
+    @Test
+    void rejectsIdsAlreadyInTheWindow() {
+        DedupWindow window = new DedupWindow(4);
+        assertTrue(window.add(10));
+        assertTrue(window.add(0));
+        assertFalse(window.add(10));
+        assertFalse(window.add(0));
+        assertEquals(2, window.size());
+    }
+
+    @Test
+    void evictsTheOldestIdWhenFull() {
+        DedupWindow window = new DedupWindow(3);
+        window.add(1);
+        window.add(2);
+        window.add(3);
+        assertTrue(window.add(4));
+        assertEquals(3, window.size());
+        assertFalse(window.contains(1));
+        assertTrue(window.contains(2));
+        assertTrue(window.contains(4));
+
+        // A duplicate does not move an ID to the front, so 2 is still the next to go
+        assertFalse(window.add(2));
+        window.add(5);
+        assertFalse(window.contains(2));
+        assertTrue(window.contains(3));
+
+        // An evicted ID counts as new again
+        assertTrue(window.add(1));
+        assertArrayEquals(new long[]{4, 5, 1}, window.toArray());
+    }
+
+    @Test
+    void holdsTheLastCapacityIdsOverManyEvictions() {
+        int capacity = 100;
+        DedupWindow window = new DedupWindow(capacity);
+        for (long id = 1; id <= 10_000; id++) {
+            assertTrue(window.add(id * 31));
+            long oldestKept = Math.max(1, id - capacity + 1);
+            if (oldestKept > 1) assertFalse(window.contains((oldestKept - 1) * 31));
+            assertTrue(window.contains(oldestKept * 31));
+        }
+        assertEquals(capacity, window.size());
+    }
+
+    @Test
+    void toArrayRebuildsTheSameWindow() {
+        DedupWindow window = new DedupWindow(4);
+        assertArrayEquals(new long[0], window.toArray());
+        for (long id = 1; id <= 6; id++) {
+            window.add(id);
+        }
+        long[] ids = window.toArray();
+        assertArrayEquals(new long[]{3, 4, 5, 6}, ids);
+
+        DedupWindow rebuilt = new DedupWindow(4);
+        for (long id : ids) {
+            rebuilt.add(id);
+        }
+        rebuilt.add(7);
+        window.add(7);
+        assertArrayEquals(window.toArray(), rebuilt.toArray());
+        assertFalse(rebuilt.contains(3));
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class FrameReaderTest {
+
+    /**
+     * Hands out scripted chunks, one per read. An empty chunk reads as 0 bytes, like a
+     * non-blocking socket with nothing available; after the last chunk the stream ends.
+     */
+    private static class ScriptedChannel implements ReadableByteChannel {
+        private final Queue<byte[]> chunks = new ArrayDeque<>();
+        private ByteBuffer current = ByteBuffer.allocate(0);
+
+        ScriptedChannel(String... chunks) {
+            for (String chunk : chunks) {
+                this.chunks.add(chunk.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        ScriptedChannel(byte[] data, int chunkSize) {
+            for (int i = 0; i < data.length; i += chunkSize) {
+                chunks.add(Arrays.copyOfRange(data, i, Math.min(data.length, i + chunkSize)));
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (!current.hasRemaining()) {
+                if (chunks.isEmpty()) return -1;
+                current = ByteBuffer.wrap(chunks.poll());
+            }
+            int length = Math.min(target.remaining(), current.remaining());
+            target.put(current.array(), current.position(), length);
+            current.position(current.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<String> frames(FrameReader reader) throws IOException {
+        List<String> frames = new ArrayList<>();
+        while (reader.next()) {
+            frames.add(reader.frame());
+        }
+        return frames;
+    }
+
+    @Test
+    void splitsFramesThatArriveAcrossReads() throws IOException {
+        FrameReader reader = new FrameReader(new ScriptedChannel("GOSSIP:1:a", "bc\nPING\nPO", "NG\n\nlast\n"));
+        assertEquals(List.of("GOSSIP:1:abc", "PING", "PONG", "", "last"), frames(reader));
+        assertTrue(reader.isEnded());
+    }
+
+    @Test
+    void stripsCarriageReturnsOnlyBeforeTheNewline() throws IOException {
+        FrameReader reader = new FrameReader(new ScriptedChannel("a\r\nb\r", "\n\rc\n\r\n"));
+        assertEquals(List.of("a", "b", "\rc", ""), frames(reader));
+    }
+
+    @Test
+    void waitsForTheRestOfAFrameOnANonBlockingChannel() throws IOException {
+        FrameReader reader = new FrameReader(new ScriptedChannel("PI", "", "NG\nPO", "", "NG\n"));
+        assertFalse(reader.next());
+        assertFalse(reader.isEnded());
+        assertTrue(reader.next());
+        assertEquals("PING", reader.frame());
+        assertFalse(reader.next());
+        assertFalse(reader.isEnded());
+        assertTrue(reader.next());
+        assertEquals("PONG", reader.frame());
+        assertFalse(reader.next());
+        assertTrue(reader.isEnded());
+    }
+
+    @Test
+    void dropsAnUnterminatedTailAtEndOfStream() throws IOException {
+        FrameReader reader = new FrameReader(new ScriptedChannel("one\ntwo"));
+        assertEquals(List.of("one"), frames(reader));
+        assertTrue(reader.isEnded());
+    }
+
+    @Test
+    void growsForLongFramesAndCompactsBetweenThem() throws IOException {
+        // Many frames, some longer than the initial buffer, fed in odd-sized reads
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String frame = String.valueOf((char) ('a' + i % 26)).repeat(i % 7 == 0 ? 20_000 : 1 + i * 13);
+            expected.add(frame);
+            input.append(frame).append('\n');
+        }
+        byte[] data = input.toString().getBytes(StandardCharsets.UTF_8);
+        FrameReader reader = new FrameReader(new ScriptedChannel(data, 3001));
+        assertEquals(expected, frames(reader));
+    }
+
+    @Test
+    void acceptsAFrameThatFillsTheBufferExactly() throws IOException {
+        String frame = "x".repeat(FrameReader.MAX_BUFFER_SIZE - 1);
+        FrameReader reader = new FrameReader(new ScriptedChannel(frame + "\n"));
+        assertTrue(reader.next());
+        assertEquals(frame.length(), reader.end() - reader.start());
+    }
+
+    @Test
+    void rejectsAFrameLongerThanTheBuffer() {
+        FrameReader reader = new FrameReader(new ScriptedChannel("x".repeat(FrameReader.MAX_BUFFER_SIZE) + "\n"));
+        IOException e = assertThrows(IOException.class, reader::next);
+        assertTrue(e.getMessage().startsWith("Frame exceeds"));
+    }
+
+    @Test
+    void matchesPrefixesAndCopiesTheFrame() throws IOException {
+        FrameReader reader = new FrameReader(new ScriptedChannel("GOSSIP:7:hi\r\nGO\n"));
+        assertTrue(reader.next());
+        assertTrue(reader.startsWith("GOSSIP:".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(reader.startsWith("PING".getBytes(StandardCharsets.UTF_8)));
+
+        ByteBuffer copy = reader.copyFrame(new BufferPool(1024, 4, 4096));
+        assertEquals(0, copy.position());
+        assertEquals("GOSSIP:7:hi\n", new String(copy.array(), 0, copy.limit(), StandardCharsets.UTF_8));
+
+        assertTrue(reader.next());
+        assertFalse(reader.startsWith("GOSSIP:".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class GossipStoreTest {
+
+    private static final long MAX_AGE = 60 * 60 * 1000;
+    private static final long MAX_BYTES = 1L << 30;
+
+    @TempDir
+    Path directory;
+
+    private final long base = System.currentTimeMillis() - 100_000; // Recent enough to survive retention
+
+    private GossipStore open() throws IOException {
+        return new GossipStore(directory.toFile(), MAX_AGE, MAX_BYTES);
+    }
+
+    private static byte[] payload(int length, long messageId) {
+        byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) messageId);
+        return payload;
+    }
+
+    // The IDs of every record the store streams for a replay, before the receiver's own filter
+    private static List<Long> replayed(GossipStore store, long since) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.replaySince(since, Channels.newChannel(bytes));
+        List<Long> ids = new ArrayList<>();
+        GossipStore.readReplay(new ByteArrayInputStream(bytes.toByteArray()), Long.MIN_VALUE,
+                (messageId, originTimestamp, payload) -> ids.add(messageId));
+        return ids;
+    }
+
+    private static List<Long> range(long first, long last) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = first; id <= last; id++) ids.add(id);
+        return ids;
+    }
+
+    @Test
+    void replayStartsAtTheFirstRecentRecordOfASegment() throws IOException {
+        try (GossipStore store = open()) {
+            // About 30 time index marks in one segment
+            for (int i = 0; i < 2000; i++) {
+                assertTrue(store.append(i + 1, base + i, payload(1000, i + 1)));
+            }
+
+            assertEquals(range(1235, 2000), replayed(store, base + 1234));
+            assertEquals(range(1, 2000), replayed(store, base - 1));
+            assertEquals(List.of(2000L), replayed(store, base + 1999));
+            assertEquals(List.of(), replayed(store, base + 2000));
+        }
+    }
+
+    @Test
+    void replaySeeksEachSegmentSeparately() throws IOException {
+        try (GossipStore store = open()) {
+            // 64 KB records, so the log rolls over into a second segment
+            int records = 2 * GossipStore.SEGMENT_SIZE / (64 * 1024) - 100;
+            for (int i = 0; i < records; i++) {
+                store.append(i + 1, base + i, payload(64 * 1024 - GossipStore.RECORD_HEADER, i + 1));
+            }
+            assertEquals(2, directory.toFile().listFiles((dir, name) -> name.endsWith(".log")).length);
+
+            int firstOfSecondSegment = GossipStore.SEGMENT_SIZE / (64 * 1024) + 1;
+            assertEquals(range(firstOfSecondSegment + 10, records), replayed(store, base + firstOfSecondSegment + 9));
+            assertEquals(range(100, records), replayed(store, base + 99));
+        }
+    }
+
+    @Test
+    void replayKeepsRecentRecordsStoredAfterOlderOnes() throws IOException {
+        try (GossipStore store = open()) {
+            // Origin times arrive out of order, as they do from gossip
+            Random random = new Random(7);
+            Map<Long, Long> origins = new HashMap<>();
+            for (long id = 1; id <= 3000; id++) {
+                long origin = base + random.nextInt(10_000);
+                origins.put(id, origin);
+                store.append(id, origin, payload(500, id));
+            }
+
+            long since = base + 6000;
+            Set<Long> expected = new HashSet<>();
+            origins.forEach((id, origin) -> {
+                if (origin >= since) expected.add(id);
+            });
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            store.replaySince(since, Channels.newChannel(bytes));
+            Set<Long> received = new HashSet<>();
+            int count = GossipStore.readReplay(new ByteArrayInputStream(bytes.toByteArray()), since,
+                    (messageId, originTimestamp, payload) -> received.add(messageId));
+            assertEquals(expected, received);
+            assertEquals(expected.size(), count);
+        }
+    }
+
+    @Test
+    void recoversRecordsOfAStoreThatWasNeverClosed() throws IOException {
+        GossipStore crashed = open();
+        for (int i = 0; i < 100; i++) {
+            crashed.append(i + 1, base + i, payload(300, i + 1));
+        }
+        crashed.flush();
+
+        // Opened again without a close, as after a crash
+        try (GossipStore recovered = open()) {
+            for (long id = 1; id <= 100; id++) {
+                assertTrue(recovered.contains(id));
+            }
+            assertArrayEquals(payload(300, 42), recovered.read(42));
+            assertFalse(recovered.append(42, base, payload(300, 42)), "recovered IDs are still deduplicated");
+
+            assertTrue(recovered.append(101, base + 100, payload(300, 101)));
+            assertEquals(range(1, 101), replayed(recovered, base));
+            assertEquals(range(51, 101), replayed(recovered, base + 50));
+        } finally {
+            crashed.close();
+        }
+    }
+
+    @Test
+    void recoveryStopsAtATornRecord() throws IOException {
+        int length = 200;
+        try (GossipStore store = open()) {
+            for (int i = 0; i < 10; i++) {
+                store.append(i + 1, base + i, payload(length, i + 1));
+            }
+        }
+
+        // A crash in the middle of an append leaves the header without its length, which is written last
+        File[] segments = directory.toFile().listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, segments.length);
+        try (FileChannel file = FileChannel.open(segments[0].toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16).putLong(99).putLong(base + 99);
+            header.flip();
+            file.write(header, 10L * (GossipStore.RECORD_HEADER + length) + 4);
+        }
+
+        try (GossipStore store = open()) {
+            assertFalse(store.contains(99));
+            assertEquals(range(1, 10), replayed(store, base));
+            assertTrue(store.append(11, base + 10, payload(length, 11)));
+            assertArrayEquals(payload(length, 11), store.read(11));
+            assertEquals(range(1, 11), replayed(store, base));
+        }
+    }
+
+    @Test
+    void appendsFailAfterClose() throws IOException {
+        GossipStore store = open();
+        store.append(1, base, payload(10, 1));
+        store.close();
+        assertThrows(IOException.class, () -> store.append(2, base, payload(10, 2)));
+        assertNull(store.read(1));
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LongLongMapTest {
+
+    private static void assertSameContents(Map<Long, Long> expected, LongLongMap map, long keyRange) {
+        assertEquals(expected.size(), map.size());
+        for (long key = -keyRange; key <= keyRange; key++) {
+            Long value = expected.get(key);
+            assertEquals(value != null, map.containsKey(key), "key " + key);
+            assertEquals(value != null ? value : -1L, map.get(key, -1L), "key " + key);
+        }
+    }
+
+    @Test
+    void removalsKeepTheRestOfEachProbeChainReachable() {
+        // Few keys in a small table, so probe chains are long and wrap around its end
+        long keyRange = 40;
+        LongLongMap map = new LongLongMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            long key = random.nextInt((int) (2 * keyRange + 1)) - keyRange;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key), "remove " + key);
+            } else {
+                long value = random.nextLong();
+                assertEquals(expected.put(key, value) == null, map.put(key, value), "put " + key);
+            }
+            assertSameContents(expected, map, keyRange);
+        }
+    }
+
+    @Test
+    void removingEveryKeyEmptiesTheMap() {
+        LongLongMap map = new LongLongMap(16);
+        for (long key = 1; key <= 1000; key++) {
+            map.put(key * 7919, key);
+        }
+        for (long key = 1; key <= 1000; key++) {
+            assertTrue(map.remove(key * 7919));
+            assertFalse(map.containsKey(key * 7919));
+            if (key < 1000) assertEquals(key + 1, map.get((key + 1) * 7919, -1));
+        }
+        assertEquals(0, map.size());
+        assertFalse(map.remove(7919));
+    }
+
+    @Test
+    void keyZeroIsAnOrdinaryKey() {
+        LongLongMap map = new LongLongMap(4);
+        assertFalse(map.containsKey(0));
+        assertEquals(-1, map.get(0, -1));
+        assertTrue(map.put(0, 5));
+        assertFalse(map.put(0, 6));
+        assertEquals(6, map.get(0, -1));
+        assertEquals(1, map.size());
+
+        // Survives growing
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, key);
+        }
+        assertEquals(6, map.get(0, -1));
+        assertEquals(101, map.size());
+
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(100, map.size());
+    }
+
+    @Test
+    void clearForgetsEverything() {
+        LongLongMap map = new LongLongMap(4);
+        for (long key = 0; key < 50; key++) {
+            map.put(key, key);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        for (long key = 0; key < 50; key++) {
+            assertFalse(map.containsKey(key));
+        }
+        assertTrue(map.put(3, 4));
+        assertEquals(4, map.get(3, -1));
+    }
+}